@@ -84,7 +84,7 @@ public abstract class AbstractCommands implements Serializable {
                 }
                 cmds.put(entry.getKey() == null
                         ? ExecutionEnvironment.any()
-                        : entry.getKey(),
+                        : entry.getKey().intern(),
                         entry.getValue() == null
                                 ? null
                                 : new ArrayList<String>(entry.getValue())
@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.api.v1;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tokenizes environment variable assignments such as {@code JDK=1.7 OPTS="-Xmx1g -server" NAME='a b'}.
+ * Assignments are separated by whitespace. Within a value, double quotes group text that contains whitespace and
+ * honour backslash escapes, and single quotes group text literally. Outside of quotes a backslash is an ordinary
+ * character, so that Windows paths such as {@code JAVA_HOME=C:\jdk} keep their meaning. The tokenizer works over a
+ * range of characters and only allocates the keys and values it returns.
+ *
+ * @since 0.7
+ */
+public final class EnvironmentAssignments {
+
+    private EnvironmentAssignments() {
+        // utility class
+    }
+
+    /**
+     * Parses assignments.
+     *
+     * @param text the assignments.
+     * @return the variables assigned, in a mutable map.
+     * @throws IllegalArgumentException if the text contains anything other than assignments or has an unterminated
+     *                                  quote.
+     */
+    @NonNull
+    public static Map<String, String> parse(@NonNull CharSequence text) {
+        Map<String, String> variables = new HashMap<String, String>();
+        parse(text, 0, text.length(), null, variables);
+        return variables;
+    }
+
+    /**
+     * Parses assignments and, when {@code labels} is supplied, the bare words between them.
+     *
+     * @param text      the text to parse.
+     * @param start     the index of the first character to parse.
+     * @param end       the index after the last character to parse.
+     * @param labels    where to add the words that are not assignments, or {@code null} if there should be none.
+     * @param variables where to put the variables assigned.
+     * @throws IllegalArgumentException if {@code labels} is {@code null} and the text contains anything other than
+     *                                  assignments, or if the text has an unterminated quote.
+     */
+    public static void parse(@NonNull CharSequence text, int start, int end, @CheckForNull Collection<String> labels,
+                             @NonNull Map<String, String> variables) {
+        int index = start;
+        while (true) {
+            while (index < end && Character.isWhitespace(text.charAt(index))) {
+                index++;
+            }
+            if (index == end) {
+                return;
+            }
+            int wordStart = index;
+            int equals = -1;
+            while (index < end && equals == -1) {
+                char c = text.charAt(index);
+                if (c == '=') {
+                    equals = index;
+                } else if (Character.isWhitespace(c)) {
+                    break;
+                }
+                index++;
+            }
+            if (equals == -1) {
+                if (labels == null) {
+                    throw new IllegalArgumentException("Properties must have format KEY=VALUE: " + text
+                            .subSequence(start, end));
+                }
+                labels.add(text.subSequence(wordStart, index).toString());
+                continue;
+            }
+            String key = text.subSequence(wordStart, equals).toString();
+            index = value(text, equals + 1, end, key, variables);
+        }
+    }
+
+    /**
+     * Reads a value, taking it straight from the text unless it contains quotes.
+     *
+     * @return the index after the value.
+     */
+    private static int value(CharSequence text, int start, int end, String key, Map<String, String> variables) {
+        int index = start;
+        while (index < end) {
+            char c = text.charAt(index);
+            if (Character.isWhitespace(c)) {
+                break;
+            }
+            if (c == '"' || c == '\'') {
+                return unquote(text, start, index, end, key, variables);
+            }
+            index++;
+        }
+        variables.put(key, text.subSequence(start, index).toString());
+        return index;
+    }
+
+    private static int unquote(CharSequence text, int start, int index, int end, String key,
+                               Map<String, String> variables) {
+        StringBuilder value = new StringBuilder(end - start).append(text, start, index);
+        char quote = 0;
+        while (index < end) {
+            char c = text.charAt(index++);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    value.append(c);
+                }
+            } else if (quote == '"') {
+                if (c == '\\' && index < end && isEscapable(text.charAt(index))) {
+                    value.append(text.charAt(index++));
+                } else if (c == '"') {
+                    quote = 0;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (Character.isWhitespace(c)) {
+                index--;
+                break;
+            } else {
+                value.append(c);
+            }
+        }
+        if (quote != 0) {
+            throw new IllegalArgumentException("Unterminated " + quote + " in " + text.subSequence(start, end));
+        }
+        variables.put(key, value.toString());
+        return index;
+    }
+
+    /**
+     * Within double quotes, as in a shell, a backslash only escapes the characters that are special there.
+     */
+    private static boolean isEscapable(char c) {
+        return c == '"' || c == '\\' || c == '$' || c == '`';
+    }
+}
@@ -27,12 +27,15 @@ import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import net.jcip.annotations.Immutable;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -41,7 +44,8 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 
 import com.google.common.base.Joiner;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Sets;
 
 /**
@@ -57,10 +61,15 @@ public class ExecutionEnvironment implements Serializable, Comparable<ExecutionE
      */
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The canonical instances, held weakly so that an environment is forgotten once no model uses it.
+     */
+    private static final Interner<ExecutionEnvironment> CANONICAL = Interners.newWeakInterner();
+
     /**
      * Save allocation of the environment that has no labels.
      */
-    private static final ExecutionEnvironment ANY_EXECUTION_ENVIRONMENT = new ExecutionEnvironment();
+    private static final ExecutionEnvironment ANY_EXECUTION_ENVIRONMENT = new ExecutionEnvironment().intern();
 
     /**
      * The labels of this execution environment.
@@ -74,12 +83,31 @@ public class ExecutionEnvironment implements Serializable, Comparable<ExecutionE
     @NonNull
     private final Map<String, String> variables;
 
+    /**
+     * The hash code, computed once at construction and again after deserialization as it is not serialized.
+     */
+    private transient int hash;
+
+    /**
+     * A one word bloom filter of the labels, so that most environments that do not match are told apart without
+     * looking at the labels.
+     */
+    private final transient long labelBloom;
+
+    /**
+     * A one word bloom filter of the names of the variables, only the names take part in matching.
+     */
+    private final transient long variableBloom;
+
     /**
      * Default constructor of an empty environment.
      */
     public ExecutionEnvironment() {
         this.labels = Collections.<String>emptySet();
         this.variables = Collections.emptyMap();
+        this.hash = computeHash();
+        this.labelBloom = bloom(this.labels);
+        this.variableBloom = bloom(this.variables.keySet());
     }
 
     /**
@@ -98,9 +126,9 @@ public class ExecutionEnvironment implements Serializable, Comparable<ExecutionE
             Set<String> l = new TreeSet<String>();
             Map<String, String> v = new TreeMap<String, String>();
             for (String string : removeNulls(labels)) {
-                String[] split = string.split("=", 2);
-                if (split.length > 1) {
-                    v.put(split[0], split[1]);
+                int index = string.indexOf('=');
+                if (index >= 0) {
+                    v.put(string.substring(0, index), string.substring(index + 1));
                 } else {
                     l.add(string);
                 }
@@ -108,6 +136,9 @@ public class ExecutionEnvironment implements Serializable, Comparable<ExecutionE
             this.labels = Collections.unmodifiableSet(l);
             this.variables = Collections.unmodifiableMap(v);
         }
+        this.hash = computeHash();
+        this.labelBloom = bloom(this.labels);
+        this.variableBloom = bloom(this.variables.keySet());
     }
 
     /**
@@ -137,7 +168,7 @@ public class ExecutionEnvironment implements Serializable, Comparable<ExecutionE
     public ExecutionEnvironment(@CheckForNull ExecutionEnvironment base,
                                 @CheckForNull Collection<String> additionalLabels) {
         Set<String> labels = new TreeSet<String>();
-        Map<String, String> variables = new HashMap<String, String>();
+        Map<String, String> variables = new TreeMap<String, String>();
         if (base != null) {
             labels.addAll(base.getLabels());
             variables.putAll(base.getVariables());
@@ -147,6 +178,9 @@ public class ExecutionEnvironment implements Serializable, Comparable<ExecutionE
         }
         this.labels = Collections.unmodifiableSet(labels);
         this.variables = Collections.unmodifiableMap(variables);
+        this.hash = computeHash();
+        this.labelBloom = bloom(this.labels);
+        this.variableBloom = bloom(this.variables.keySet());
     }
 
     /**
@@ -226,8 +260,28 @@ public class ExecutionEnvironment implements Serializable, Comparable<ExecutionE
      *         environment.
      */
     public boolean isMatchFor(ExecutionEnvironment environment) {
-        return getLabels().containsAll(environment.getLabels()) &&
-                Maps.difference(getVariables(), environment.getVariables()).entriesOnlyOnRight().isEmpty();
+        if ((labelBloom & environment.labelBloom) != environment.labelBloom
+                || (variableBloom & environment.variableBloom) != environment.variableBloom) {
+            // one of the names of the specified environment is certainly missing
+            return false;
+        }
+        // the filters pass every true match, so the exact check must stay cheap and allocate nothing beyond iterators
+        return labels.containsAll(environment.labels) && variables.keySet().containsAll(environment.variables.keySet());
+    }
+
+    /**
+     * Computes a one word bloom filter of a set of names, setting one bit for each name.
+     *
+     * @param names the names.
+     * @return the bloom filter.
+     */
+    static long bloom(Collection<String> names) {
+        long bloom = 0L;
+        for (String name : names) {
+            int h = name.hashCode();
+            bloom |= 1L << (h ^ (h >>> 6) ^ (h >>> 12));
+        }
+        return bloom;
     }
 
     /**
@@ -255,6 +309,10 @@ public class ExecutionEnvironment implements Serializable, Comparable<ExecutionE
 
         ExecutionEnvironment that = (ExecutionEnvironment) o;
 
+        if (hashCode() != that.hashCode()) {
+            return false;
+        }
+
         if (!labels.equals(that.labels)) {
             return false;
         }
@@ -270,8 +328,17 @@ public class ExecutionEnvironment implements Serializable, Comparable<ExecutionE
      * {@inheritDoc}
      */
     @Override
-    @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="RCN_REDUNDANT_NULLCHECK_OF_NONNULL_VALUE", justification="It might be null after a deserialization of an old version")
     public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            // deserialized, racing threads compute the same value
+            h = hash = computeHash();
+        }
+        return h;
+    }
+
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="RCN_REDUNDANT_NULLCHECK_OF_NONNULL_VALUE", justification="It might be null after a deserialization of an old version")
+    private int computeHash() {
         final int prime = 31;
         int result = 1;
         result = prime * result + labels.hashCode();
@@ -335,8 +402,8 @@ public class ExecutionEnvironment implements Serializable, Comparable<ExecutionE
          // map does not permit null, so safe to return unmodified.
             return map;
         }
-        Map<K,V> result = new HashMap<K,V>();
-        for (Entry<K, V> entry : result.entrySet()) {
+        Map<K,V> result = new LinkedHashMap<K,V>();
+        for (Entry<K, V> entry : map.entrySet()) {
             if (entry.getValue() != null) {
                 result.put(entry.getKey(), entry.getValue());
             }
@@ -344,6 +411,32 @@ public class ExecutionEnvironment implements Serializable, Comparable<ExecutionE
         return result;
     }
 
+    /**
+     * Returns the canonical instance of this environment. Models hold the canonical instances of their environments,
+     * so that however many models use the same environment only one copy of it is kept and comparing the
+     * environments of models mostly comes down to comparing references. Instances of subclasses are never replaced.
+     *
+     * @return the canonical environment equal to this one.
+     * @since 0.7
+     */
+    @NonNull
+    public ExecutionEnvironment intern() {
+        return getClass() == ExecutionEnvironment.class ? CANONICAL.intern(this) : this;
+    }
+
+    /**
+     * Replaces deserialized environments with their canonical instance, constructing it afresh as the bloom filters
+     * are not serialized.
+     *
+     * @return the canonical environment equal to the deserialized one.
+     * @throws ObjectStreamException never.
+     */
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="RCN_REDUNDANT_NULLCHECK_OF_NONNULL_VALUE", justification="It might be null after a deserialization of an old version")
+    private Object readResolve() throws ObjectStreamException {
+        return new ExecutionEnvironment(labels,
+                variables == null ? Collections.<String, String>emptyMap() : variables).intern();
+    }
+
     /**
      * Returns an environment without labels, that is it will match all other environments.
      *
@@ -353,10 +446,43 @@ public class ExecutionEnvironment implements Serializable, Comparable<ExecutionE
         return ANY_EXECUTION_ENVIRONMENT;
     }
 
-    @Override
+    /**
+     * Orders environments by their labels and then by their variables, each compared element by element in their
+     * sorted order, so that an environment whose labels are a prefix of another's comes first.
+     *
+     * @param o the environment to compare with.
+     * @return a negative integer, zero, or a positive integer as this environment is less than, equal to, or greater
+     *         than the specified environment.
+     */
+    //@Override
     public int compareTo(ExecutionEnvironment o) {
         if (o == null) return 1;
-        return toString().compareTo(o.toString());
+        if (this == o) return 0;
+        Iterator<String> these = labels.iterator();
+        Iterator<String> those = o.labels.iterator();
+        while (these.hasNext() && those.hasNext()) {
+            int result = these.next().compareTo(those.next());
+            if (result != 0) {
+                return result;
+            }
+        }
+        if (these.hasNext() || those.hasNext()) {
+            return these.hasNext() ? 1 : -1;
+        }
+        Iterator<Entry<String, String>> mine = variables.entrySet().iterator();
+        Iterator<Entry<String, String>> theirs = o.variables.entrySet().iterator();
+        while (mine.hasNext() && theirs.hasNext()) {
+            Entry<String, String> a = mine.next();
+            Entry<String, String> b = theirs.next();
+            int result = a.getKey().compareTo(b.getKey());
+            if (result == 0) {
+                result = a.getValue().compareTo(b.getValue());
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return mine.hasNext() ? 1 : theirs.hasNext() ? -1 : 0;
     }
 
 }
@@ -75,7 +75,11 @@ public class ProjectModel implements Serializable {
                          @CheckForNull BuildCommands build,
                          @CheckForNull Map<String, TaskCommands> tasks) {
         if (environments != null) {
-            this.environments = Collections.unmodifiableList(new ArrayList<ExecutionEnvironment>(environments));
+            List<ExecutionEnvironment> canonical = new ArrayList<ExecutionEnvironment>(environments.size());
+            for (ExecutionEnvironment environment : environments) {
+                canonical.add(environment == null ? null : environment.intern());
+            }
+            this.environments = Collections.unmodifiableList(canonical);
         } else {
             this.environments = Collections.singletonList(ExecutionEnvironment.any());
         }
@@ -195,7 +199,7 @@ public class ProjectModel implements Serializable {
         @NonNull
         private final List<ExecutionEnvironment> environments = new ArrayList<ExecutionEnvironment>();
         /**
-         * The build commands.
+         * The build commands, the lists are owned by the builder and appended to as commands are added.
          */
         @NonNull
         private final Map<ExecutionEnvironment, List<String>> build =
@@ -206,10 +210,15 @@ public class ProjectModel implements Serializable {
         @NonNull
         private final List<Parameter> buildParameters = new ArrayList<Parameter>();
         /**
-         * The post-build tasks.
+         * The post-build task commands, the lists are owned by the builder and appended to as commands are added.
+         */
+        @NonNull
+        private final Map<String, List<String>> taskCommands = new LinkedHashMap<String, List<String>>();
+        /**
+         * The post-build task parameters.
          */
         @NonNull
-        private final Map<String, TaskCommands> tasks = new LinkedHashMap<String, TaskCommands>();
+        private final Map<String, List<Parameter>> taskParameters = new LinkedHashMap<String, List<Parameter>>();
 
         /**
          * Use {@link org.cloudbees.literate.api.v1.ProjectModel#builder()}.
@@ -344,12 +353,7 @@ public class ProjectModel implements Serializable {
             } else if (build.size() == 1 && build.containsKey(ExecutionEnvironment.any())) {
                 throw new IllegalStateException("Cannot have a global command and environment specific commands");
             }
-            List<String> existing = build.get(environment);
-            if (existing == null) {
-                build.put(environment, commands);
-            } else {
-                build.put(environment, AbstractCommands.join(existing, commands));
-            }
+            appendCommands(build, environment, commands);
             return this;
         }
 
@@ -434,11 +438,8 @@ public class ProjectModel implements Serializable {
          */
         @NonNull
         public Builder addTask(String taskId, TaskCommands commands) {
-            if (this.tasks.containsKey(taskId)) {
-                this.tasks.put(taskId, TaskCommands.merge(this.tasks.get(taskId), commands));
-            } else {
-                this.tasks.put(taskId, commands);
-            }
+            appendCommands(taskCommands, taskId, commands.getCommand());
+            appendTaskParameters(taskId, commands.getParameters().values());
             return this;
         }
 
@@ -478,17 +479,45 @@ public class ProjectModel implements Serializable {
          */
         @NonNull
         public Builder addTaskParameters(String taskId, Iterable<Parameter> parameters) {
-            List<Parameter> parameterList = new ArrayList<Parameter>();
-            for (Parameter parameter : parameters) {
-                parameterList.add(parameter);
+            appendCommands(taskCommands, taskId, Collections.<String>emptyList());
+            appendTaskParameters(taskId, parameters);
+            return this;
+        }
+
+        /**
+         * Appends commands in place, with the same semantics as {@link AbstractCommands#join(List, List)} but without
+         * copying the commands accumulated so far, so that adding N blocks of commands costs O(N) rather than
+         * O(N<sup>2</sup>).
+         *
+         * @param map      the accumulated commands.
+         * @param key      the key of the commands to append to.
+         * @param commands the commands to append.
+         * @param <K>      the type of key.
+         */
+        private static <K> void appendCommands(Map<K, List<String>> map, K key, @CheckForNull List<String> commands) {
+            List<String> existing = map.get(key);
+            if (existing == null || existing.isEmpty()) {
+                map.put(key, commands == null ? null : new ArrayList<String>(commands));
+            } else if (commands != null) {
+                existing.addAll(commands);
+            }
+        }
+
+        /**
+         * Appends task parameters in place.
+         *
+         * @param taskId     the task id.
+         * @param parameters the parameters.
+         */
+        private void appendTaskParameters(String taskId, Iterable<Parameter> parameters) {
+            List<Parameter> existing = taskParameters.get(taskId);
+            if (existing == null) {
+                existing = new ArrayList<Parameter>();
+                taskParameters.put(taskId, existing);
             }
-            TaskCommands commands = new TaskCommands(Collections.<String>emptyList(), parameterList);
-            if (this.tasks.containsKey(taskId)) {
-                this.tasks.put(taskId, TaskCommands.merge(this.tasks.get(taskId), commands));
-            } else {
-                this.tasks.put(taskId, commands);
+            for (Parameter parameter : parameters) {
+                existing.add(parameter);
             }
-            return this;
         }
 
         /**
@@ -498,6 +527,10 @@ public class ProjectModel implements Serializable {
          */
         @NonNull
         public ProjectModel build() throws ProjectModelValidationException {
+            Map<String, TaskCommands> tasks = new LinkedHashMap<String, TaskCommands>();
+            for (Map.Entry<String, List<String>> entry : taskCommands.entrySet()) {
+                tasks.put(entry.getKey(), new TaskCommands(entry.getValue(), taskParameters.get(entry.getKey())));
+            }
             ProjectModel model = new ProjectModel(environments.isEmpty()
                     ? Collections.singletonList(ExecutionEnvironment.any())
                     : environments,
@@ -35,6 +35,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A request for a {@link ProjectModel}
@@ -49,6 +50,42 @@ public class ProjectModelRequest {
      */
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The default maximum time in milliseconds that a builder may spend parsing the source model.
+     *
+     * @since 0.7
+     */
+    public static final long DEFAULT_PARSE_TIMEOUT_MILLIS = 2000L;
+
+    /**
+     * The default maximum size in characters of a source model that a builder will parse.
+     *
+     * @since 0.7
+     */
+    public static final long DEFAULT_MAX_SOURCE_SIZE = 1024L * 1024L;
+
+    /**
+     * The default maximum number of environments that a builder will expand a source model into.
+     *
+     * @since 0.7
+     */
+    public static final int DEFAULT_MAX_ENVIRONMENTS = 1024;
+
+    /**
+     * The default maximum number of nodes that the aliases of a source model may repeat. This leaves room for source
+     * models that reuse anchors hundreds of times while stopping exponential expansions long before they cost anything.
+     *
+     * @since 0.7
+     */
+    public static final int DEFAULT_MAX_ALIASED_NODES = 100000;
+
+    /**
+     * The default maximum depth to which collections may be nested in a source model.
+     *
+     * @since 0.7
+     */
+    public static final int DEFAULT_MAX_NESTING_DEPTH = 50;
+
     /**
      * The base name that the project model builder will use to detect the model. The base name should typically be used
      * to detect a "marker" file, the presence of which implies that the project model can be built by the builder and
@@ -91,6 +128,31 @@ public class ProjectModelRequest {
     @NonNull
     private final Set<String> taskIds;
 
+    /**
+     * The maximum time in milliseconds that the builder may spend parsing the source model.
+     */
+    private final long parseTimeoutMillis;
+
+    /**
+     * The maximum size in characters of a source model that the builder will parse.
+     */
+    private final long maxSourceSize;
+
+    /**
+     * The maximum number of environments that the builder will expand the source model into.
+     */
+    private final int maxEnvironments;
+
+    /**
+     * The maximum number of nodes that the aliases of the source model may repeat.
+     */
+    private final int maxAliasedNodes;
+
+    /**
+     * The maximum depth to which collections may be nested in the source model.
+     */
+    private final int maxNestingDepth;
+
     /**
      * Use {@link #builder(org.cloudbees.literate.api.v1.vfs.ProjectRepository)}.
      *
@@ -99,13 +161,23 @@ public class ProjectModelRequest {
      * @param environmentsId the environment id.
      * @param buildId        the build id.
      * @param taskIds        the task ids.
+     * @param parseTimeoutMillis the parse time budget.
+     * @param maxSourceSize  the source size budget.
+     * @param maxEnvironments the environment budget.
+     * @param maxAliasedNodes the alias budget.
+     * @param maxNestingDepth the nesting budget.
      */
     private ProjectModelRequest(@CheckForNull String baseName,
                                 @NonNull ProjectRepository repository,
                                 @CheckForNull String environmentsId,
                                 @CheckForNull String envvarsId,
                                 @CheckForNull String buildId,
-                                @NonNull List<String> taskIds) {
+                                @NonNull List<String> taskIds,
+                                long parseTimeoutMillis,
+                                long maxSourceSize,
+                                int maxEnvironments,
+                                int maxAliasedNodes,
+                                int maxNestingDepth) {
         repository.getClass();
         this.baseName = baseName == null ? "cloudbees" : baseName;
         this.repository = repository;
@@ -115,6 +187,11 @@ public class ProjectModelRequest {
                 ? Collections.singleton("deploy")
                 : Collections.unmodifiableSet(new TreeSet<String>(taskIds));
         this.envvarsId = envvarsId == null ? "env" : envvarsId;
+        this.parseTimeoutMillis = parseTimeoutMillis;
+        this.maxSourceSize = maxSourceSize;
+        this.maxEnvironments = maxEnvironments;
+        this.maxAliasedNodes = maxAliasedNodes;
+        this.maxNestingDepth = maxNestingDepth;
     }
 
     /**
@@ -177,6 +254,65 @@ public class ProjectModelRequest {
         return taskIds;
     }
 
+    /**
+     * Returns the maximum time in milliseconds that the builder may spend parsing the source model. Builders that
+     * exceed this budget fail with a {@link ProjectModelBudgetExceededException}.
+     *
+     * @return the maximum time in milliseconds that the builder may spend parsing the source model.
+     * @since 0.7
+     */
+    public long getParseTimeoutMillis() {
+        return parseTimeoutMillis;
+    }
+
+    /**
+     * Returns the maximum size in characters of a source model that the builder will parse. Builders fail with a
+     * {@link ProjectModelBudgetExceededException} when the source model is larger than this.
+     *
+     * @return the maximum size in characters of a source model that the builder will parse.
+     * @since 0.7
+     */
+    public long getMaxSourceSize() {
+        return maxSourceSize;
+    }
+
+    /**
+     * Returns the maximum number of environments that the builder will expand the source model into. Builders fail
+     * with a {@link ProjectModelBudgetExceededException} when the source model expands into more environments than
+     * this.
+     *
+     * @return the maximum number of environments that the builder will expand the source model into.
+     * @since 0.7
+     */
+    public int getMaxEnvironments() {
+        return maxEnvironments;
+    }
+
+    /**
+     * Returns the maximum number of nodes that the aliases of the source model may repeat. Each alias repeats the whole
+     * node it refers to, including the nodes repeated by the aliases within it, so aliases to collections that contain
+     * aliases multiply. Builders fail with a {@link ProjectModelBudgetExceededException} as soon as the aliases of a
+     * source model repeat more nodes than this. Source formats without aliases, such as markdown, ignore this.
+     *
+     * @return the maximum number of nodes that the aliases of the source model may repeat.
+     * @since 0.7
+     */
+    public int getMaxAliasedNodes() {
+        return maxAliasedNodes;
+    }
+
+    /**
+     * Returns the maximum depth to which collections may be nested in the source model. Builders fail with a
+     * {@link ProjectModelBudgetExceededException} as soon as a source model nests collections deeper than this.
+     * Source formats without nested collections, such as markdown, ignore this.
+     *
+     * @return the maximum depth to which collections may be nested in the source model.
+     * @since 0.7
+     */
+    public int getMaxNestingDepth() {
+        return maxNestingDepth;
+    }
+
     /**
      * Instantiates a new {@link Builder}.
      *
@@ -237,6 +373,31 @@ public class ProjectModelRequest {
         @NonNull
         private final List<String> taskIds = new ArrayList<String>();
 
+        /**
+         * The maximum time in milliseconds that the builder may spend parsing the source model.
+         */
+        private long parseTimeoutMillis = DEFAULT_PARSE_TIMEOUT_MILLIS;
+
+        /**
+         * The maximum size in characters of a source model that the builder will parse.
+         */
+        private long maxSourceSize = DEFAULT_MAX_SOURCE_SIZE;
+
+        /**
+         * The maximum number of environments that the builder will expand the source model into.
+         */
+        private int maxEnvironments = DEFAULT_MAX_ENVIRONMENTS;
+
+        /**
+         * The maximum number of nodes that the aliases of the source model may repeat.
+         */
+        private int maxAliasedNodes = DEFAULT_MAX_ALIASED_NODES;
+
+        /**
+         * The maximum depth to which collections may be nested in the source model.
+         */
+        private int maxNestingDepth = DEFAULT_MAX_NESTING_DEPTH;
+
         /**
          * Use {@link ProjectModelRequest#builder(org.cloudbees.literate.api.v1.vfs.ProjectRepository)}.
          *
@@ -338,6 +499,87 @@ public class ProjectModelRequest {
             return this;
         }
 
+        /**
+         * Configure the maximum time that the builder may spend parsing the source model.
+         *
+         * @param timeout the maximum time, must be positive.
+         * @param unit    the units of {@code timeout}.
+         * @return {@code this} for method chaining.
+         * @since 0.7
+         */
+        @NonNull
+        public Builder withParseTimeout(long timeout, @NonNull TimeUnit unit) {
+            if (timeout <= 0) {
+                throw new IllegalArgumentException("The parse timeout must be positive");
+            }
+            this.parseTimeoutMillis = Math.max(1L, unit.toMillis(timeout));
+            return this;
+        }
+
+        /**
+         * Configure the maximum size in characters of a source model that the builder will parse.
+         *
+         * @param maxSourceSize the maximum size, must be positive.
+         * @return {@code this} for method chaining.
+         * @since 0.7
+         */
+        @NonNull
+        public Builder withMaxSourceSize(long maxSourceSize) {
+            if (maxSourceSize <= 0) {
+                throw new IllegalArgumentException("The maximum source size must be positive");
+            }
+            this.maxSourceSize = maxSourceSize;
+            return this;
+        }
+
+        /**
+         * Configure the maximum number of environments that the builder will expand the source model into.
+         *
+         * @param maxEnvironments the maximum number of environments, must be positive.
+         * @return {@code this} for method chaining.
+         * @since 0.7
+         */
+        @NonNull
+        public Builder withMaxEnvironments(int maxEnvironments) {
+            if (maxEnvironments <= 0) {
+                throw new IllegalArgumentException("The maximum number of environments must be positive");
+            }
+            this.maxEnvironments = maxEnvironments;
+            return this;
+        }
+
+        /**
+         * Configure the maximum number of nodes that the aliases of the source model may repeat.
+         *
+         * @param maxAliasedNodes the maximum number of nodes, must not be negative.
+         * @return {@code this} for method chaining.
+         * @since 0.7
+         */
+        @NonNull
+        public Builder withMaxAliasedNodes(int maxAliasedNodes) {
+            if (maxAliasedNodes < 0) {
+                throw new IllegalArgumentException("The maximum number of aliased nodes must not be negative");
+            }
+            this.maxAliasedNodes = maxAliasedNodes;
+            return this;
+        }
+
+        /**
+         * Configure the maximum depth to which collections may be nested in the source model.
+         *
+         * @param maxNestingDepth the maximum depth, must be positive.
+         * @return {@code this} for method chaining.
+         * @since 0.7
+         */
+        @NonNull
+        public Builder withMaxNestingDepth(int maxNestingDepth) {
+            if (maxNestingDepth <= 0) {
+                throw new IllegalArgumentException("The maximum nesting depth must be positive");
+            }
+            this.maxNestingDepth = maxNestingDepth;
+            return this;
+        }
+
         /**
          * Builds the {@link ProjectModelRequest}.
          *
@@ -345,7 +587,8 @@ public class ProjectModelRequest {
          */
         @NonNull
         public ProjectModelRequest build() {
-            return new ProjectModelRequest(baseName, repository, environmentsId, envvarsId, buildId, taskIds);
+            return new ProjectModelRequest(baseName, repository, environmentsId, envvarsId, buildId, taskIds,
+                    parseTimeoutMillis, maxSourceSize, maxEnvironments, maxAliasedNodes, maxNestingDepth);
         }
     }
 }
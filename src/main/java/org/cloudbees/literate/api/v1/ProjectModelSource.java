@@ -96,7 +96,7 @@ public class ProjectModelSource {
      * @throws IOException                   if there were IO problems connecting to the
      *                                       {@link ProjectModelRequest#getRepository()}.
      * @throws ProjectModelBuildingException if the {@link ProjectModelRequest#getRepository()} did not contain a valid
-     *                                       model definition.
+     *                                       model definition, the most specific failure of the builders.
      */
     @NonNull
     public ProjectModel submit(@NonNull ProjectModelRequest request) throws IOException, ProjectModelBuildingException {
@@ -116,7 +116,7 @@ public class ProjectModelSource {
                     ioe = e;
                 }
             } catch (ProjectModelBuildingException e) {
-                if (pmbe == null) {
+                if (pmbe == null || specificity(e) > specificity(pmbe)) {
                     pmbe = e;
                 }
             }
@@ -130,4 +130,18 @@ public class ProjectModelSource {
         throw new ProjectModelBuildingException("Could not find a builder to instantiate a model");
     }
 
+    /**
+     * Ranks the failures of the builders, so that a builder that found its source model but could not build it
+     * explains the failure rather than the builders that did not recognize the repository.
+     *
+     * @param e the failure.
+     * @return the higher, the more specific.
+     */
+    private static int specificity(ProjectModelBuildingException e) {
+        if (e instanceof ProjectModelSourceNotFoundException) {
+            return 0;
+        }
+        return e instanceof ProjectModelBudgetExceededException ? 2 : 1;
+    }
+
 }
@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.api.v1.vfs;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A {@link ProjectRepository} that answers questions about the immediate children of the root of another repository
+ * from a single listing once a probe of the root has missed more than once, so that probing the root for a handful of
+ * well known files costs at most two probes and a listing. Until then, and whenever the listing only holds the child
+ * under a different case, as it may for a case insensitive repository, the probe is passed through to the wrapped
+ * repository like everything else. The listing is never refreshed, so this is meant to live no longer than the
+ * handling of one request.
+ *
+ * @since 0.7
+ */
+@NotThreadSafe
+public final class CachedRootRepository implements SizedProjectRepository {
+
+    /**
+     * The wrapped repository.
+     */
+    private final ProjectRepository delegate;
+
+    /**
+     * The child paths of the root, as returned by {@link ProjectRepository#getPaths(String)}, or {@code null} until
+     * they are listed.
+     */
+    private Set<String> rootPaths;
+
+    /**
+     * The child paths of the root, each starting with {@code /} whatever the form used by the wrapped repository.
+     */
+    private Set<String> rootChildren;
+
+    /**
+     * The {@link #rootChildren} in lower case.
+     */
+    private Set<String> foldedRootChildren;
+
+    /**
+     * The number of probes of the root that the wrapped repository answered with {@code false}.
+     */
+    private int rootMisses;
+
+    private CachedRootRepository(ProjectRepository delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns a repository that caches the root listing of the supplied repository.
+     *
+     * @param repository the repository.
+     * @return the supplied repository if it already caches its root listing, otherwise a wrapper that does.
+     */
+    @NonNull
+    public static CachedRootRepository of(@NonNull ProjectRepository repository) {
+        return repository instanceof CachedRootRepository
+                ? (CachedRootRepository) repository
+                : new CachedRootRepository(repository);
+    }
+
+    /**
+     * Returns {@code true} if the root of the repository holds a file with the supplied name.
+     *
+     * @param name the name of the file.
+     * @return {@code true} if the root of the repository holds a file with the supplied name.
+     * @throws IOException if there was a problem listing the root.
+     */
+    public boolean hasRootFile(@NonNull String name) throws IOException {
+        return isFile("/" + name);
+    }
+
+    /**
+     * Returns the child paths of the root, listing them on first use.
+     *
+     * @return the read only child paths of the root.
+     * @throws IOException if there was a problem listing the root.
+     */
+    @NonNull
+    public Set<String> getRootPaths() throws IOException {
+        if (rootPaths == null) {
+            Set<String> paths;
+            try {
+                paths = delegate.getPaths(null);
+            } catch (PathNotFoundException e) {
+                paths = Collections.emptySet();
+            }
+            Set<String> children = new HashSet<String>(paths.size());
+            Set<String> folded = new HashSet<String>(paths.size());
+            for (String child : paths) {
+                String normalized = child.startsWith("/") ? child : "/" + child;
+                children.add(normalized);
+                folded.add(normalized.toLowerCase(Locale.ENGLISH));
+            }
+            rootPaths = Collections.unmodifiableSet(paths);
+            rootChildren = children;
+            foldedRootChildren = folded;
+        }
+        return rootPaths;
+    }
+
+    /**
+     * Answers a probe of the root from the listing when it can.
+     *
+     * @param child the child path, as listed.
+     * @return {@code true} or {@code false} if the listing answers the probe, {@code null} if the wrapped repository
+     *         should.
+     * @throws IOException if there was a problem listing the root.
+     */
+    private Boolean listed(String child) throws IOException {
+        if (rootPaths == null && rootMisses < 2) {
+            return null;
+        }
+        getRootPaths();
+        if (rootChildren.contains(child)) {
+            return Boolean.TRUE;
+        }
+        return foldedRootChildren.contains(child.toLowerCase(Locale.ENGLISH)) ? null : Boolean.FALSE;
+    }
+
+    private boolean probed(boolean exists) {
+        if (!exists) {
+            rootMisses++;
+        }
+        return exists;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    //@Override
+    public InputStream get(String filePath) throws PathNotFoundException, IOException {
+        return delegate.get(filePath);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    //@Override
+    public long getSize(String filePath) throws PathNotFoundException, IOException {
+        return delegate instanceof SizedProjectRepository
+                ? ((SizedProjectRepository) delegate).getSize(filePath)
+                : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    //@Override
+    public boolean isFile(String path) throws IOException {
+        String name = rootChild(path);
+        if (name == null) {
+            return delegate.isFile(path);
+        }
+        Boolean listed = listed(name);
+        return listed == null ? probed(delegate.isFile(path)) : listed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    //@Override
+    public boolean isDirectory(String path) throws IOException {
+        String name = rootChild(path);
+        if (name == null) {
+            return delegate.isDirectory(path);
+        }
+        Boolean listed = listed(name + "/");
+        return listed == null ? probed(delegate.isDirectory(path)) : listed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    //@Override
+    public Set<String> getPaths(String path) throws PathNotFoundException, IOException {
+        if (path == null || path.trim().length() == 0 || path.equals("/")) {
+            return getRootPaths();
+        }
+        return delegate.getPaths(path);
+    }
+
+    /**
+     * Returns the path of an immediate child of the root in the form used by the root listing.
+     *
+     * @param path the path.
+     * @return the path of the child, starting with {@code /}, or {@code null} if the path does not name an immediate
+     *         child of the root.
+     */
+    private static String rootChild(String path) {
+        if (path == null) {
+            return null;
+        }
+        String name = path.startsWith("/") ? path.substring(1) : path;
+        if (name.length() == 0 || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0
+                || name.equals(".") || name.equals("..") || !name.equals(name.trim())) {
+            return null;
+        }
+        return "/" + name;
+    }
+}
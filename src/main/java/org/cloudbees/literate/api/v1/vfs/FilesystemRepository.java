@@ -34,7 +34,7 @@ import java.util.TreeSet;
 /**
  * A {@link ProjectRepository} hosted on the local file system.
  */
-public class FilesystemRepository implements ProjectRepository {
+public class FilesystemRepository implements SizedProjectRepository {
     /**
      * The root of the {@link ProjectRepository}.
      */
@@ -90,6 +90,18 @@ public class FilesystemRepository implements ProjectRepository {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    //@Override
+    public long getSize(String filePath) throws PathNotFoundException, IOException {
+        File file = resolve(filePath);
+        if (!file.isFile()) {
+            throw new PathNotFoundException("Path does not exist or is not a file");
+        }
+        return file.length();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.NotThreadSafe;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.CollectionEndEvent;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.NodeEvent;
+import org.yaml.snakeyaml.parser.Parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A YAML {@link Parser} that stops a document as soon as it nests collections too deeply or its aliases repeat too
+ * many nodes. Nothing composed from the events holds more than one copy of an aliased node, but every consumer that
+ * walks the result, such as flattening nested command lists, visits an aliased node once per alias, so a few levels
+ * of collections each aliasing the previous one ten times add up to billions of visits. Each alias is therefore
+ * weighed by the number of nodes that walking it visits, counting the aliases within it at their own weight, which
+ * lets a document reuse small anchors freely. Deep nesting is limited as composing and walking the collections
+ * recurses. Aliases to a collection from within that collection would make it contain itself, so they are rejected as
+ * invalid, as are aliases to undefined anchors.
+ *
+ * @since 0.7
+ */
+@NotThreadSafe
+final class BoundedYamlParser implements Parser {
+
+    /**
+     * The parser that produces the events.
+     */
+    private final Parser delegate;
+
+    /**
+     * The maximum number of nodes that aliases may repeat.
+     */
+    private final int maxAliasedNodes;
+
+    /**
+     * The maximum depth of nested collections.
+     */
+    private final int maxNestingDepth;
+
+    /**
+     * The number of nodes that walking each anchored node visits, anchors can be redefined.
+     */
+    private final Map<String, Long> anchorWeights = new HashMap<String, Long>();
+
+    /**
+     * The anchors of the open collections, {@code null} for those without one.
+     */
+    private final List<String> openAnchors = new ArrayList<String>();
+
+    /**
+     * The value of {@link #nodes} when each of the open collections started.
+     */
+    private final List<Long> openStarts = new ArrayList<Long>();
+
+    /**
+     * The number of nodes that walking the document so far visits.
+     */
+    private long nodes;
+
+    /**
+     * The number of nodes that the aliases seen so far repeat.
+     */
+    private long aliasedNodes;
+
+    /**
+     * The depth of the current collection.
+     */
+    private int depth;
+
+    /**
+     * Constructor.
+     *
+     * @param delegate        the parser that produces the events.
+     * @param maxAliasedNodes the maximum number of nodes that aliases may repeat.
+     * @param maxNestingDepth the maximum depth of nested collections.
+     */
+    BoundedYamlParser(@NonNull Parser delegate, int maxAliasedNodes, int maxNestingDepth) {
+        this.delegate = delegate;
+        this.maxAliasedNodes = maxAliasedNodes;
+        this.maxNestingDepth = maxNestingDepth;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    //@Override
+    public boolean checkEvent(Event.ID choice) {
+        return delegate.checkEvent(choice);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    //@Override
+    public Event peekEvent() {
+        return delegate.peekEvent();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    //@Override
+    public Event getEvent() {
+        Event event = delegate.getEvent();
+        if (event instanceof CollectionStartEvent) {
+            if (++depth > maxNestingDepth) {
+                throw new LimitExceeded("collections are nested more than " + maxNestingDepth + " deep");
+            }
+            String anchor = ((CollectionStartEvent) event).getAnchor();
+            redefine(anchor);
+            openAnchors.add(anchor);
+            openStarts.add(nodes++);
+        } else if (event instanceof CollectionEndEvent) {
+            depth--;
+            String anchor = openAnchors.remove(openAnchors.size() - 1);
+            long start = openStarts.remove(openStarts.size() - 1);
+            if (anchor != null) {
+                anchorWeights.put(anchor, nodes - start);
+            }
+        } else if (event instanceof AliasEvent) {
+            String anchor = ((AliasEvent) event).getAnchor();
+            if (openAnchors.contains(anchor)) {
+                // the latest definition of the anchor is still open, so the alias would make a collection contain
+                // itself and walking it would never end
+                throw new YAMLException("The alias *" + anchor + " refers to a collection that contains it");
+            }
+            Long weight = anchorWeights.get(anchor);
+            if (weight == null) {
+                throw new YAMLException("The alias *" + anchor + " refers to an undefined anchor");
+            }
+            aliasedNodes += weight;
+            if (aliasedNodes > maxAliasedNodes) {
+                throw new LimitExceeded("aliases repeat more than " + maxAliasedNodes + " nodes");
+            }
+            nodes += weight;
+        } else if (event instanceof NodeEvent) {
+            nodes++;
+            String anchor = ((NodeEvent) event).getAnchor();
+            if (anchor != null) {
+                redefine(anchor);
+                anchorWeights.put(anchor, 1L);
+            }
+        }
+        return event;
+    }
+
+    /**
+     * Forgets the open collections that were named by an anchor that is being redefined, as aliases now refer to
+     * the new definition.
+     *
+     * @param anchor the anchor, if any.
+     */
+    private void redefine(String anchor) {
+        if (anchor != null) {
+            for (int i = 0; i < openAnchors.size(); i++) {
+                if (anchor.equals(openAnchors.get(i))) {
+                    openAnchors.set(i, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Signals that a document exceeds one of the limits. This is not a {@link org.yaml.snakeyaml.error.YAMLException}
+     * so that it passes through the handlers of invalid documents.
+     */
+    static final class LimitExceeded extends RuntimeException {
+        /**
+         * Ensure consistent serialization.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor.
+         *
+         * @param message the limit that was exceeded.
+         */
+        LimitExceeded(String message) {
+            super(message);
+        }
+    }
+}
@@ -23,23 +23,26 @@
  */
 package org.cloudbees.literate.impl;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import org.apache.commons.io.IOUtils;
 import org.cloudbees.literate.api.v1.ExecutionEnvironment;
 import org.cloudbees.literate.api.v1.Parameter;
 import org.cloudbees.literate.api.v1.ProjectModel;
+import org.cloudbees.literate.api.v1.ProjectModelBudgetExceededException;
 import org.cloudbees.literate.api.v1.ProjectModelBuildingException;
 import org.cloudbees.literate.api.v1.ProjectModelRequest;
+import org.cloudbees.literate.api.v1.ProjectModelSourceNotFoundException;
 import org.cloudbees.literate.api.v1.ProjectModelValidationException;
 import org.cloudbees.literate.api.v1.vfs.ProjectRepository;
+import org.cloudbees.literate.impl.markdown.NativeMarkdownParser;
 import org.cloudbees.literate.spi.v1.ProjectModelBuilder;
-import org.hamcrest.BaseMatcher;
-import org.hamcrest.CoreMatchers;
-import org.hamcrest.Description;
 import org.hamcrest.Factory;
 import org.hamcrest.Matcher;
 import org.hamcrest.core.SubstringMatcher;
 import org.pegdown.Extensions;
+import org.pegdown.ParsingTimeoutException;
 import org.pegdown.PegDownProcessor;
 import org.pegdown.ast.BulletListNode;
 import org.pegdown.ast.CodeNode;
@@ -57,9 +60,14 @@ import org.pegdown.ast.VerbatimNode;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -68,10 +76,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 import java.util.TreeSet;
-
-import static org.cloudbees.literate.impl.MarkdownProjectModelBuilder.StringContainsIgnoreCase.containsStringIgnoreCase;
-import static org.hamcrest.CoreMatchers.allOf;
-import static org.hamcrest.CoreMatchers.instanceOf;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A {@link ProjectModelBuilder} that uses a Markdown file as the source of its {@link ProjectModel}
@@ -86,31 +93,149 @@ public class MarkdownProjectModelBuilder implements ProjectModelBuilder {
     private static final int GITHUB = Extensions.AUTOLINKS + Extensions.FENCED_CODE_BLOCKS + Extensions.HARDWRAPS
             + Extensions.DEFINITIONS;
 
+    /**
+     * The system property that selects the default {@link Engine}.
+     */
+    public static final String ENGINE_PROPERTY = MarkdownProjectModelBuilder.class.getName() + ".engine";
+
+    /**
+     * The system property that sets how many parsed documents are kept in the cache shared by all builders.
+     */
+    public static final String CACHE_SIZE_PROPERTY = MarkdownProjectModelBuilder.class.getName() + ".cacheSize";
+
+    /**
+     * Parsed documents keyed by engine and content digest, shared by all requests so that requests for different
+     * sections of the same source only need to re-run the extraction.
+     */
+    private static final Cache<String, IndexedDocument> DOCUMENTS = CacheBuilder.newBuilder()
+            .maximumSize(Math.max(0, Integer.getInteger(CACHE_SIZE_PROPERTY, 64)))
+            .build();
+
+    /**
+     * The top level blocks of runs of sections, keyed by engine and content digest, so that when a source changes
+     * only the sections that changed need to be parsed again.
+     */
+    private static final Cache<String, List<Node>> SECTIONS = CacheBuilder.newBuilder()
+            .maximumSize(Math.max(0, Integer.getInteger(CACHE_SIZE_PROPERTY, 64) * 16L))
+            .build();
+
+    /**
+     * The Markdown parsing engines that can produce the AST consumed by this builder.
+     *
+     * @since 0.7
+     */
+    public static enum Engine {
+        /**
+         * The full {@link PegDownProcessor} with the GitHub flavoured extensions.
+         */
+        PEGDOWN {
+            @Override
+            RootNode parse(char[] source, long timeoutMillis) {
+                return new PegDownProcessor(GITHUB, timeoutMillis).parseMarkdown(source);
+            }
+        },
+        /**
+         * The hand-written {@link NativeMarkdownParser}, which produces the same AST for the subset of Markdown
+         * that this builder consumes.
+         */
+        NATIVE {
+            @Override
+            RootNode parse(char[] source, long timeoutMillis) {
+                return new NativeMarkdownParser(timeoutMillis).parse(source);
+            }
+        };
+
+        /**
+         * Parses the source into a pegdown AST.
+         *
+         * @param source        the Markdown source.
+         * @param timeoutMillis the maximum time the parse may take.
+         * @return the AST.
+         * @throws ParsingTimeoutException if the parse takes longer than {@code timeoutMillis}.
+         */
+        abstract RootNode parse(char[] source, long timeoutMillis);
+
+        /**
+         * Returns the engine named by the {@link #ENGINE_PROPERTY} system property, falling back to
+         * {@link #PEGDOWN}.
+         *
+         * @return the default engine.
+         */
+        @NonNull
+        public static Engine getDefault() {
+            String name = System.getProperty(ENGINE_PROPERTY);
+            if (name != null) {
+                for (Engine engine : values()) {
+                    if (engine.name().equalsIgnoreCase(name.trim())) {
+                        return engine;
+                    }
+                }
+            }
+            return PEGDOWN;
+        }
+    }
+
+    /**
+     * The engine used to parse the Markdown source.
+     */
+    @NonNull
+    private final Engine engine;
+
+    /**
+     * Creates a builder using the {@link Engine#getDefault()} engine.
+     */
+    public MarkdownProjectModelBuilder() {
+        this(Engine.getDefault());
+    }
+
+    /**
+     * Creates a builder using the specified engine.
+     *
+     * @param engine the engine.
+     * @since 0.7
+     */
+    public MarkdownProjectModelBuilder(@NonNull Engine engine) {
+        engine.getClass(); // throw NPE if null
+        this.engine = engine;
+    }
+
     public static String getText(Node node) {
         return getTextUntil(node, null);
     }
 
     public static String getTextUntil(Node node, Node until) {
-        StringBuilder builder = new StringBuilder();
         if (node == until) {
-            // no-op
-        } else if (node instanceof TextNode) {
-            builder.append(TextNode.class.cast(node).getText());
-        } else {
-            for (Node n : node.getChildren()) {
-                if (n == until) {
-                    break;
-                }
-                if (n instanceof TextNode) {
-                    builder.append(TextNode.class.cast(n).getText());
-                } else if (n instanceof SuperNode) {
-                    builder.append(getText(n));
-                }
-            }
+            return "";
+        }
+        if (node instanceof TextNode) {
+            return TextNode.class.cast(node).getText();
         }
+        StringBuilder builder = new StringBuilder();
+        appendTextUntil(builder, node, until);
         return builder.toString();
     }
 
+    /**
+     * Appends the text of the node's children, up to but excluding {@code until}, recursing into nested
+     * {@link SuperNode}s with the same builder.
+     *
+     * @param builder the builder to append to.
+     * @param node    the node.
+     * @param until   the child to stop at or {@code null}.
+     */
+    private static void appendTextUntil(StringBuilder builder, Node node, Node until) {
+        for (Node n : node.getChildren()) {
+            if (n == until) {
+                break;
+            }
+            if (n instanceof TextNode) {
+                builder.append(TextNode.class.cast(n).getText());
+            } else if (n instanceof SuperNode) {
+                appendTextUntil(builder, n, null);
+            }
+        }
+    }
+
     public static HeaderNode asHeaderNode(Node node) {
         return HeaderNode.class.cast(node);
     }
@@ -122,10 +247,10 @@ public class MarkdownProjectModelBuilder implements ProjectModelBuilder {
     public ProjectModel build(ProjectModelRequest request) throws IOException, ProjectModelBuildingException {
         for (String name : markerFiles(request.getBaseName())) {
             if (request.getRepository().isFile(name)) {
-                return new Parser(request).parseProjectModel(request.getRepository(), name);
+                return new Parser(request, engine).parseProjectModel(request.getRepository(), name);
             }
         }
-        throw new ProjectModelBuildingException("Not a Markdown based literate project");
+        throw new ProjectModelSourceNotFoundException("Not a Markdown based literate project");
     }
 
     /**
@@ -142,93 +267,56 @@ public class MarkdownProjectModelBuilder implements ProjectModelBuilder {
     private static class Parser {
 
         private static final String FALLBACK_FILE = "README.md";
+        private static final int ENVIRONMENTS_SECTION = 0;
+        private static final int BUILD_SECTION = 1;
+        private static final int FIRST_TASK_SECTION = 2;
         /**
-         * Matches header nodes.
-         */
-        private static final Matcher<Node> isHeader = instanceOf(HeaderNode.class);
-        /**
-         * Matches the root node.
-         */
-        private static final Matcher<Node> isRoot = instanceOf(RootNode.class);
-        /**
-         * Matches paragraphs of text.
-         */
-        private static final Matcher<Node> isPara = instanceOf(ParaNode.class);
-        /**
-         * Matches super nodes.
-         */
-        private static final Matcher<Node> isSuper = instanceOf(SuperNode.class);
-        /**
-         * Matches code blocks.
-         */
-        private static final Matcher<Node> isCode = instanceOf(CodeNode.class);
-        /**
-         * Matches a node that has code blocks.
-         */
-        private static final Matcher<Node> hasCode = new WithDescendant(isCode);
-        /**
-         * Matches list items.
-         */
-        private static final Matcher<Node> isItem = allOf(instanceOf(ListItemNode.class), new WithChild(isRoot));
-        /**
-         * Matches bullet points.
+         * Finds the lower case ids of the sections in lower case header text: the environments id at index
+         * {@link #ENVIRONMENTS_SECTION}, the build id at {@link #BUILD_SECTION} and then the task ids.
          */
-        private static final Matcher<Node> isBullet = allOf(instanceOf(BulletListNode.class), new WithChild(isItem));
+        private final MultiSubstringMatcher sectionIds;
         /**
-         * Matches a node that has a bullet point descendant.
+         * The task ids, in the same order as in {@link #sectionIds}.
          */
-        private static final Matcher<Node> hasBullet = new WithDescendant(isBullet);
-        /**
-         * Matches a verbatim block.
-         */
-        private static final Matcher<Node> isVerbatim = instanceOf(VerbatimNode.class);
-        /**
-         * Matches a node that has a verbatim descendant.
-         */
-        private static final Matcher<Node> hasVerbatim = new WithDescendant(isVerbatim);
-        /**
-         * Matches a node that is the term in a definition list.
-         */
-        private static final Matcher<Node> isDefinitionTerm = instanceOf(DefinitionTermNode.class);
-        /**
-         * Matches a node that is the definition in a definition list.
-         */
-        private static final Matcher<Node> isDefinition = instanceOf(DefinitionNode.class);
+        private final List<String> taskIds;
+        private final int minLength;
         /**
-         * Matches a node that is a definition list.
+         * The engine used to parse the source.
          */
-        private static final Matcher<Node> isDefinitionList = allOf(instanceOf(DefinitionListNode.class),
-                new WithChild(isDefinitionTerm), new WithChild(isDefinition));
+        private final Engine engine;
         /**
-         * Matches the environments section header.
+         * The maximum size of source that will be parsed.
          */
-        private final Matcher<Node> isEnvHeader;
+        private final long maxSourceSize;
         /**
-         * Matches the build section header.
+         * The parse time budget of the request.
          */
-        private final Matcher<Node> isBuildHeader;
+        private final long parseTimeoutMillis;
         /**
-         * Matchers for the task section headers.
+         * The {@link System#nanoTime()} by which all parsing for the request must be complete.
          */
-        private final Map<String, Matcher<Node>> isTaskHeader;
-        private final int minLength;
+        private final long deadline;
 
         /**
          * Makes the parser.
          *
          * @param request the request to parse.
+         * @param engine  the engine used to parse the source.
          */
-        private Parser(ProjectModelRequest request) {
+        private Parser(ProjectModelRequest request, Engine engine) {
+            this.engine = engine;
+            maxSourceSize = request.getMaxSourceSize();
+            parseTimeoutMillis = request.getParseTimeoutMillis();
+            deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(parseTimeoutMillis);
             minLength = "#".length() + request.getBuildId().length() + "\n    a".length();
-            isEnvHeader = allOf(isHeader, new WithText(containsStringIgnoreCase(request.getEnvironmentsId())));
-            isBuildHeader = allOf(isHeader, new WithText(containsStringIgnoreCase(request.getBuildId())));
-            Map<String, Matcher<Node>> isTaskHeader = new LinkedHashMap<String, Matcher<Node>>();
-            for (String taskId : request.getTaskIds()) {
-                isTaskHeader.put(taskId, CoreMatchers.<Node>allOf(
-                        isHeader, new WithText(containsStringIgnoreCase(taskId)))
-                );
+            taskIds = new ArrayList<String>(request.getTaskIds());
+            List<String> sectionIds = new ArrayList<String>(FIRST_TASK_SECTION + taskIds.size());
+            sectionIds.add(request.getEnvironmentsId().toLowerCase());
+            sectionIds.add(request.getBuildId().toLowerCase());
+            for (String taskId : taskIds) {
+                sectionIds.add(taskId.toLowerCase());
             }
-            this.isTaskHeader = isTaskHeader;
+            this.sectionIds = new MultiSubstringMatcher(sectionIds);
         }
 
         /**
@@ -238,33 +326,41 @@ public class MarkdownProjectModelBuilder implements ProjectModelBuilder {
          * @param filePath   the file to parse.
          * @return the model.
          * @throws IOException when things go wrong.
+         * @throws ProjectModelBuildingException when the model is invalid or exceeds the parse budget.
          */
         private ProjectModel parseProjectModel(ProjectRepository repository, String filePath)
-                throws IOException, ProjectModelValidationException {
+                throws IOException, ProjectModelBuildingException {
             InputStream stream = repository.get(filePath);
             try {
-                char[] chars = IOUtils.toCharArray(stream);
-                RootNode document = chars.length < minLength ? null : new PegDownProcessor(GITHUB).parseMarkdown(chars);
+                char[] chars = SourceDecoder.read(repository, stream, filePath, maxSourceSize);
+                boolean isFallbackFile = FALLBACK_FILE.equals(filePath);
+                if (!isFallbackFile && !mayHaveSectionHeader(chars) && repository.isFile(FALLBACK_FILE)) {
+                    // without a build or task section the model would be empty, so go straight to the fall-back
+                    return parseProjectModel(repository, FALLBACK_FILE);
+                }
+                IndexedDocument document = chars.length < minLength ? null : parseSource(chars, filePath);
                 ProjectModel.Builder builder = ProjectModel.builder();
-                if (document != null && !document.getChildren().isEmpty()) {
-                    Iterator<Node> iterator = document.getChildren().iterator();
+                if (document != null) {
+                    List<Iterator<Node>> sections = document.sections(sectionIds);
 
-                    consumeEnvironmentSection(iterator, builder);
+                    Iterator<Node> iterator = sections.get(ENVIRONMENTS_SECTION);
+                    if (iterator != null) {
+                        consumeEnvironmentSection(document.kinds, iterator, builder);
+                    }
 
-                    iterator = document.getChildren().iterator();
-                    if (discardTo(iterator, isBuildHeader)) {
-                        consumeBuild(iterator, builder);
+                    iterator = sections.get(BUILD_SECTION);
+                    if (iterator != null) {
+                        consumeBuild(document.kinds, iterator, builder);
                     }
 
-                    for (Map.Entry<String, Matcher<Node>> entry : isTaskHeader.entrySet()) {
-                        iterator = document.getChildren().iterator();
-                        if (discardTo(iterator, entry.getValue())) {
-                            consumeTask(iterator, builder, entry.getKey());
+                    for (int i = 0; i < taskIds.size(); i++) {
+                        iterator = sections.get(FIRST_TASK_SECTION + i);
+                        if (iterator != null) {
+                            consumeTask(document.kinds, iterator, builder, taskIds.get(i));
                         }
                     }
                 }
                 ProjectModel model;
-                boolean isFallbackFile = FALLBACK_FILE.equals(filePath);
                 try {
                     model = builder.build();
                 } catch (ProjectModelBuildingException e) {
@@ -293,44 +389,245 @@ public class MarkdownProjectModelBuilder implements ProjectModelBuilder {
             }
         }
 
-        private void consumeBuild(Iterator<Node> iterator, ProjectModel.Builder builder) {
+        /**
+         * Checks, without parsing, whether the source could contain a header for the build section or for one of
+         * the task sections. This errs on the side of {@code true}: any ATX or setext style header line that
+         * contains one of the section ids, or that contains inline markup which could hide one, is a candidate.
+         *
+         * @param chars the source.
+         * @return {@code false} if the source definitely has no build or task section header.
+         */
+        private boolean mayHaveSectionHeader(char[] chars) {
+            int start = 0;
+            while (start < chars.length) {
+                int end = start;
+                while (end < chars.length && chars[end] != '\n' && chars[end] != '\r') {
+                    end++;
+                }
+                int next = end < chars.length && chars[end] == '\r' && end + 1 < chars.length
+                        && chars[end + 1] == '\n' ? end + 2 : end + 1;
+                if (isAtxHeaderLine(chars, start, end) || isSetextUnderline(chars, next)) {
+                    if (mayContainSectionId(chars, start, end)) {
+                        return true;
+                    }
+                }
+                start = next;
+            }
+            return false;
+        }
+
+        private static boolean isAtxHeaderLine(char[] chars, int start, int end) {
+            int i = start;
+            while (i < end && (chars[i] == ' ' || chars[i] == '\t')) {
+                i++;
+            }
+            return i < end && chars[i] == '#';
+        }
+
+        private static boolean isSetextUnderline(char[] chars, int start) {
+            if (start >= chars.length || chars[start] != '=' && chars[start] != '-') {
+                return false;
+            }
+            char c = chars[start];
+            for (int i = start + 1; i < chars.length && chars[i] != '\n' && chars[i] != '\r'; i++) {
+                if (chars[i] != c && chars[i] != ' ' && chars[i] != '\t') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Splits the source into runs of blocks that Markdown parses independently of each other: each run after the
+         * first starts with a column 0 ATX header that follows a blank line and is outside any fenced code block.
+         * Anything that could make a block span a blank line in ways this scan cannot follow, an HTML tag or comment
+         * or a fence that is not cleanly opened and closed, ends the splitting.
+         *
+         * @param chars the source.
+         * @return the offsets at which the runs start, the first is always {@code 0}.
+         */
+        static int[] sectionStarts(char[] chars) {
+            int[] starts = new int[8];
+            int count = 1;
+            boolean blank = true;
+            char fence = 0;
+            int fenceLength = 0;
+            int start = 0;
+            scan:
+            while (start < chars.length) {
+                int end = start;
+                while (end < chars.length && chars[end] != '\n' && chars[end] != '\r') {
+                    if (chars[end] == '<') {
+                        break scan;
+                    }
+                    end++;
+                }
+                char c = start < end ? chars[start] : 0;
+                if (c == '`' || c == '~') {
+                    int length = 1;
+                    while (start + length < end && chars[start + length] == c) {
+                        length++;
+                    }
+                    if (fence == 0 && length >= 3) {
+                        if (!blank) {
+                            break;
+                        }
+                        fence = c;
+                        fenceLength = length;
+                    } else if (fence != 0 && length >= 3) {
+                        if (c != fence || length != fenceLength) {
+                            break;
+                        }
+                        fence = 0;
+                    }
+                } else if (c == '#' && blank && fence == 0 && start > 0) {
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                    }
+                    starts[count++] = start;
+                }
+                // a line indented by a tab or four spaces would let a list item swallow the header
+                blank = end - start < 4;
+                for (int i = start; i < end && blank; i++) {
+                    blank = chars[i] == ' ';
+                }
+                start = end < chars.length && chars[end] == '\r' && end + 1 < chars.length
+                        && chars[end + 1] == '\n' ? end + 2 : end + 1;
+            }
+            return Arrays.copyOf(starts, count);
+        }
+
+        private boolean mayContainSectionId(char[] chars, int start, int end) {
+            // Markdown collapses runs of white space, so do the same before looking for the ids
+            StringBuilder line = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                char c = chars[i];
+                switch (c) {
+                    case '&':
+                    case '\\':
+                    case '*':
+                    case '_':
+                    case '`':
+                    case '<':
+                    case '[':
+                        return true;
+                    case ' ':
+                    case '\t':
+                        if (line.length() == 0 || line.charAt(line.length() - 1) != ' ') {
+                            line.append(' ');
+                        }
+                        break;
+                    default:
+                        line.append(c);
+                        break;
+                }
+            }
+            // only the build and task sections matter, the environments section alone does not make a model
+            return sectionIds.find(line.toString().toLowerCase()).nextSetBit(BUILD_SECTION) >= 0;
+        }
+
+        /**
+         * Returns the cached document for the source, or parses it with whatever remains of the time budget.
+         *
+         * @param chars    the source.
+         * @param filePath the file being parsed.
+         * @return the document.
+         * @throws ProjectModelBudgetExceededException if the parse takes too long.
+         */
+        private IndexedDocument parseSource(char[] chars, String filePath)
+                throws ProjectModelBudgetExceededException {
+            int[] starts = sectionStarts(chars);
+            String[] digests = new String[starts.length];
+            StringBuilder key = new StringBuilder(engine.name());
+            for (int i = 0; i < starts.length; i++) {
+                digests[i] = digest(chars, starts[i], i + 1 < starts.length ? starts[i + 1] : chars.length);
+                key.append(':').append(digests[i]);
+            }
+            IndexedDocument document = DOCUMENTS.getIfPresent(key.toString());
+            if (document != null) {
+                return document;
+            }
+            RootNode root;
+            if (starts.length == 1) {
+                root = parseWithinBudget(chars, filePath);
+            } else {
+                // splice the cached blocks of the unchanged sections with freshly parsed blocks of the changed ones
+                root = new RootNode();
+                for (int i = 0; i < starts.length; i++) {
+                    String sectionKey = engine.name() + ':' + digests[i];
+                    List<Node> blocks = SECTIONS.getIfPresent(sectionKey);
+                    if (blocks == null) {
+                        int end = i + 1 < starts.length ? starts[i + 1] : chars.length;
+                        blocks = parseWithinBudget(Arrays.copyOfRange(chars, starts[i], end), filePath).getChildren();
+                        SECTIONS.put(sectionKey, blocks);
+                    }
+                    root.getChildren().addAll(blocks);
+                }
+            }
+            document = new IndexedDocument(root);
+            DOCUMENTS.put(key.toString(), document);
+            return document;
+        }
+
+        /**
+         * Parses with whatever remains of the time budget.
+         *
+         * @param chars    the source.
+         * @param filePath the file being parsed.
+         * @return the AST.
+         * @throws ProjectModelBudgetExceededException if the parse takes too long.
+         */
+        private RootNode parseWithinBudget(char[] chars, String filePath) throws ProjectModelBudgetExceededException {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            try {
+                if (remaining > 0) {
+                    return engine.parse(chars, remaining);
+                }
+            } catch (ParsingTimeoutException e) {
+                // fall through
+            }
+            throw new ProjectModelBudgetExceededException(
+                    "Could not parse " + filePath + " within " + parseTimeoutMillis + "ms");
+        }
+
+        private void consumeBuild(NodeKinds kinds, Iterator<Node> iterator, ProjectModel.Builder builder) {
             while (iterator.hasNext()) {
                 Node node = iterator.next();
-                if (isHeader.matches(node)) {
+                if (kinds.is(node, NodeKinds.HEADER)) {
                     break;
                 }
-                if (isVerbatim.matches(node)) {
-                    builder.addBuild(getText(node));
+                if (kinds.is(node, NodeKinds.VERBATIM)) {
+                    builder.addBuild(kinds.text(node));
                 }
-                if (isBullet.matches(node)) {
-                    builder.addBuild(parseBuild(node.getChildren()));
+                if (kinds.is(node, NodeKinds.BULLET)) {
+                    builder.addBuild(parseBuild(kinds, node.getChildren()));
                 }
-                if (isDefinitionList.matches(node)) {
-                    builder.addBuildParameters(parseDefinitions(node.getChildren()));
+                if (kinds.is(node, NodeKinds.DEFINITION_LIST)) {
+                    builder.addBuildParameters(parseDefinitions(kinds, node.getChildren()));
                 }
             }
         }
 
-        private List<Parameter> parseDefinitions(List<Node> children) {
+        private List<Parameter> parseDefinitions(NodeKinds kinds, List<Node> children) {
             ArrayList<Parameter> result = new ArrayList<Parameter>();
             DefinitionTermNode term = null;
             for (Node node : children) {
-                if (isDefinitionTerm.matches(node)) {
+                if (kinds.is(node, NodeKinds.DEFINITION_TERM)) {
                     term = (DefinitionTermNode) node;
                 }
-                if (isDefinition.matches(node) && term != null) {
-                    String name = getText(term);
+                if (kinds.is(node, NodeKinds.DEFINITION) && term != null) {
+                    String name = kinds.text(term);
                     String defaultValue = null;
                     Set<String> validValues = null;
-                    if (hasCode.matches(node)) {
+                    if (kinds.is(node, NodeKinds.HAS_CODE)) {
                         Stack<Iterator<Node>> stack = new Stack<Iterator<Node>>();
                         stack.push(node.getChildren().iterator());
                         while (!stack.isEmpty()) {
                             Iterator<Node> i = stack.pop();
                             while (i.hasNext()) {
                                 Node c = i.next();
-                                if (isCode.matches(c)) {
-                                    String text = getText(c);
+                                if (kinds.is(c, NodeKinds.CODE)) {
+                                    String text = kinds.text(c);
                                     if (defaultValue == null) {
                                         defaultValue = text;
                                     } else if (validValues == null) {
@@ -348,7 +645,7 @@ public class MarkdownProjectModelBuilder implements ProjectModelBuilder {
                         }
                     }
                     if (!name.isEmpty()) {
-                        result.add(new Parameter(name, getText(node), defaultValue, validValues));
+                        result.add(new Parameter(name, kinds.text(node), defaultValue, validValues));
                     }
                     term = null;
                 }
@@ -356,91 +653,79 @@ public class MarkdownProjectModelBuilder implements ProjectModelBuilder {
             return result;
         }
 
-        private void consumeTask(Iterator<Node> iterator, ProjectModel.Builder builder, String taskId) {
+        private void consumeTask(NodeKinds kinds, Iterator<Node> iterator, ProjectModel.Builder builder,
+                                 String taskId) {
             while (iterator.hasNext()) {
                 Node node = iterator.next();
-                if (isHeader.matches(node)) {
+                if (kinds.is(node, NodeKinds.HEADER)) {
                     break;
                 }
-                if (isVerbatim.matches(node)) {
-                    builder.addTask(taskId.toLowerCase(), getText(node));
+                if (kinds.is(node, NodeKinds.VERBATIM)) {
+                    builder.addTask(taskId.toLowerCase(), kinds.text(node));
                 }
-                if (isBullet.matches(node)) {
+                if (kinds.is(node, NodeKinds.BULLET)) {
                     // discard
                 }
-                if (isDefinitionList.matches(node)) {
-                    builder.addTaskParameters(taskId.toLowerCase(), parseDefinitions(node.getChildren()));
+                if (kinds.is(node, NodeKinds.DEFINITION_LIST)) {
+                    builder.addTaskParameters(taskId.toLowerCase(), parseDefinitions(kinds, node.getChildren()));
                 }
 
             }
         }
 
-        /**
-         * eat up all the stuff until we reach the matcher's match
-         */
-        private boolean discardTo(Iterator<Node> iterator, Matcher<Node> matcher) {
+        private void consumeEnvironmentSection(NodeKinds kinds, Iterator<Node> iterator,
+                                               ProjectModel.Builder builder) {
             while (iterator.hasNext()) {
-                if (matcher.matches(iterator.next())) {
-                    return true;
+                Node node = iterator.next();
+                if (kinds.is(node, NodeKinds.HEADER)) {
+                    break;
                 }
-            }
-            return false;
-        }
-
-        private void consumeEnvironmentSection(Iterator<Node> iterator, ProjectModel.Builder builder) {
-            if (discardTo(iterator, isEnvHeader)) {
-                while (iterator.hasNext()) {
-                    Node node = iterator.next();
-                    if (isHeader.matches(node)) {
-                        break;
-                    }
-                    if (isBullet.matches(node)) {
-                        builder.addEnvironments(parseEnvironments(node.getChildren()));
-                    }
+                if (kinds.is(node, NodeKinds.BULLET)) {
+                    builder.addEnvironments(parseEnvironments(kinds, node.getChildren()));
                 }
             }
         }
 
-        private Map<ExecutionEnvironment, List<String>> parseBuild(List<Node> children) {
+        private Map<ExecutionEnvironment, List<String>> parseBuild(NodeKinds kinds, List<Node> children) {
             Map<ExecutionEnvironment, List<String>> result = new LinkedHashMap<ExecutionEnvironment, List<String>>();
             for (Node node : children) {
-                if (isItem.matches(node)) {
-                    result.putAll(parseBuild(node));
+                if (kinds.is(node, NodeKinds.ITEM)) {
+                    result.putAll(parseBuild(kinds, node));
                 }
             }
             return result;
         }
 
-        private Map<ExecutionEnvironment, List<String>> parseBuild(Node listItem) {
-            if (hasVerbatim.matches(listItem)) {
+        private Map<ExecutionEnvironment, List<String>> parseBuild(NodeKinds kinds, Node listItem) {
+            if (kinds.is(listItem, NodeKinds.HAS_VERBATIM)) {
                 Set<String> labels = new TreeSet<String>();
                 List<String> cmd = new ArrayList<String>();
                 for (Node root : listItem.getChildren()) {
-                    if (isVerbatim.matches(root)) {
-                        cmd.add(getText(root));
+                    if (kinds.is(root, NodeKinds.VERBATIM)) {
+                        cmd.add(kinds.text(root));
                     }
-                    if (isRoot.matches(root) || isPara.matches(root)) {
+                    if (kinds.is(root, NodeKinds.ROOT | NodeKinds.PARA)) {
                         for (Node child : root.getChildren()) {
-                            if (isVerbatim.matches(child)) {
-                                cmd.add(getText(child));
-                            } else if (isPara.matches(child)) {
+                            if (kinds.is(child, NodeKinds.VERBATIM)) {
+                                cmd.add(kinds.text(child));
+                            } else if (kinds.is(child, NodeKinds.PARA)) {
                                 for (Node node : child.getChildren()) {
-                                    if (isSuper.matches(node)) {
+                                    if (kinds.is(node, NodeKinds.SUPER)) {
                                         for (Node n : node.getChildren()) {
-                                            if (isVerbatim.matches(n)) {
-                                                cmd.add(getText(child));
-                                            } else if (isCode.matches(n)) {
-                                                labels.add(getText(n));
+                                            if (kinds.is(n, NodeKinds.VERBATIM)) {
+                                                cmd.add(kinds.text(child));
+                                            } else if (kinds.is(n, NodeKinds.CODE)) {
+                                                labels.add(kinds.text(n));
                                             }
                                         }
                                     }
                                 }
-                            } else if (isSuper.matches(child)) {
+                            } else if (kinds.is(child, NodeKinds.SUPER)) {
                                 for (Node node : child.getChildren()) {
-                                    if (isVerbatim.matches(child)) {
-                                        cmd.add(getText(node));
-                                    } else if (isCode.matches(node)) {
-                                        labels.add(getText(node));
+                                    if (kinds.is(child, NodeKinds.VERBATIM)) {
+                                        cmd.add(kinds.text(node));
+                                    } else if (kinds.is(node, NodeKinds.CODE)) {
+                                        labels.add(kinds.text(node));
                                     }
                                 }
                             }
@@ -452,28 +737,28 @@ public class MarkdownProjectModelBuilder implements ProjectModelBuilder {
             return Collections.emptyMap();
         }
 
-        private List<ExecutionEnvironment> parseEnvironments(Node listItem) {
+        private List<ExecutionEnvironment> parseEnvironments(NodeKinds kinds, Node listItem) {
             Set<String> toAll = new TreeSet<String>();
             List<ExecutionEnvironment> environments = new ArrayList<ExecutionEnvironment>();
             for (Node root : listItem.getChildren()) {
-                if (isRoot.matches(root) || isPara.matches(root)) {
+                if (kinds.is(root, NodeKinds.ROOT | NodeKinds.PARA)) {
                     for (Node child : root.getChildren()) {
-                        if (isBullet.matches(child)) {
-                            environments.addAll(parseEnvironments(child.getChildren()));
-                        } else if (isPara.matches(child)) {
+                        if (kinds.is(child, NodeKinds.BULLET)) {
+                            environments.addAll(parseEnvironments(kinds, child.getChildren()));
+                        } else if (kinds.is(child, NodeKinds.PARA)) {
                             for (Node node : child.getChildren()) {
-                                if (isSuper.matches(node)) {
+                                if (kinds.is(node, NodeKinds.SUPER)) {
                                     for (Node n : node.getChildren()) {
-                                        if (isCode.matches(n)) {
-                                            toAll.add(getText(n));
+                                        if (kinds.is(n, NodeKinds.CODE)) {
+                                            toAll.add(kinds.text(n));
                                         }
                                     }
                                 }
                             }
-                        } else if (isSuper.matches(child)) {
+                        } else if (kinds.is(child, NodeKinds.SUPER)) {
                             for (Node node : child.getChildren()) {
-                                if (isCode.matches(node)) {
-                                    toAll.add(getText(node));
+                                if (kinds.is(node, NodeKinds.CODE)) {
+                                    toAll.add(kinds.text(node));
                                 }
                             }
                         }
@@ -491,100 +776,249 @@ public class MarkdownProjectModelBuilder implements ProjectModelBuilder {
             return result;
         }
 
-        private List<ExecutionEnvironment> parseEnvironments(List<Node> listItems) {
+        private List<ExecutionEnvironment> parseEnvironments(NodeKinds kinds, List<Node> listItems) {
             List<ExecutionEnvironment> result = new ArrayList<ExecutionEnvironment>();
             for (Node node : listItems) {
-                if (isItem.matches(node)) {
-                    result.addAll(parseEnvironments(node));
+                if (kinds.is(node, NodeKinds.ITEM)) {
+                    result.addAll(parseEnvironments(kinds, node));
                 }
             }
             return result;
         }
     }
 
-    private static class WithChild extends BaseMatcher<Node> {
-        private final Matcher<? super Node> childMatcher;
-
-        private WithChild(Matcher<? super Node> childMatcher) {
-            this.childMatcher = childMatcher;
+    /**
+     * Computes the SHA-1 digest of a range of characters as a hex string.
+     *
+     * @param chars the characters.
+     * @param from  the start of the range, inclusive.
+     * @param to    the end of the range, exclusive.
+     * @return the digest.
+     */
+    private static String digest(char[] chars, int from, int to) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM must support SHA-1", e);
         }
-
-        //@Override
-        public boolean matches(Object item) {
-            if (!(item instanceof Node)) {
-                return false;
-            }
-            for (Node child : ((Node) item).getChildren()) {
-                if (childMatcher.matches(child)) {
-                    return true;
-                }
+        byte[] buffer = new byte[8192];
+        for (int i = from; i < to; ) {
+            int n = 0;
+            for (; n < buffer.length && i < to; i++) {
+                buffer[n++] = (byte) (chars[i] >> 8);
+                buffer[n++] = (byte) chars[i];
             }
-            return false;
+            digest.update(buffer, 0, n);
         }
-
-        //@Override
-        public void describeTo(Description description) {
-            description.appendText("with a child node matching ").appendDescriptionOf(childMatcher);
+        StringBuilder result = new StringBuilder(40);
+        for (byte b : digest.digest()) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
         }
+        return result.toString();
     }
 
-    private static class WithDescendant extends BaseMatcher<Node> {
-        private final Matcher<? super Node> childMatcher;
+    /**
+     * A parsed document with an index of its top level headers, so that finding a section does not need to walk
+     * every block. Instances are shared between requests and threads and so must never be modified.
+     */
+    private static final class IndexedDocument {
+        /**
+         * The top level blocks of the document.
+         */
+        private final List<Node> blocks;
+        /**
+         * The indices in {@link #blocks} of the headers.
+         */
+        private final int[] headers;
+        /**
+         * The lower case text of the headers, in the same order as {@link #headers}.
+         */
+        private final String[] headerTexts;
+        /**
+         * The kinds of every node in the document.
+         */
+        private final NodeKinds kinds;
 
-        private WithDescendant(Matcher<? super Node> childMatcher) {
-            this.childMatcher = childMatcher;
+        private IndexedDocument(RootNode root) {
+            this.blocks = root.getChildren();
+            this.kinds = new NodeKinds(root);
+            int count = 0;
+            int[] headers = new int[blocks.size()];
+            for (int i = 0; i < headers.length; i++) {
+                if (blocks.get(i) instanceof HeaderNode) {
+                    headers[count++] = i;
+                }
+            }
+            this.headers = Arrays.copyOf(headers, count);
+            this.headerTexts = new String[count];
+            for (int i = 0; i < count; i++) {
+                headerTexts[i] = kinds.text(blocks.get(this.headers[i])).toLowerCase();
+            }
         }
 
-        //@Override
-        public boolean matches(Object item) {
-            if (!(item instanceof Node)) {
-                return false;
+        /**
+         * Finds the first section whose header contains each of the ids.
+         *
+         * @param ids the lower case ids.
+         * @return for each id, an iterator over the blocks following the first header that contains it, or
+         *         {@code null} if there is no such header.
+         */
+        private List<Iterator<Node>> sections(MultiSubstringMatcher ids) {
+            List<Iterator<Node>> result = new ArrayList<Iterator<Node>>(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                result.add(null);
             }
-            for (Node child : ((Node) item).getChildren()) {
-                if (childMatcher.matches(child) || this.matches(child)) {
-                    return true;
+            int unresolved = ids.size();
+            for (int h = 0; h < headers.length && unresolved > 0; h++) {
+                BitSet found = ids.find(headerTexts[h]);
+                for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+                    if (result.get(i) == null) {
+                        result.set(i, blocks.listIterator(headers[h] + 1));
+                        unresolved--;
+                    }
                 }
             }
-            return false;
-        }
-
-        //@Override
-        public void describeTo(Description description) {
-            description.appendText("with a descendant node matching ").appendDescriptionOf(childMatcher);
+            return result;
         }
     }
 
-    private static class WithText extends BaseMatcher<Node> {
-        private final Matcher<? super String> textMatcher;
+    /**
+     * The kinds of the nodes in a document, and what kinds of nodes they contain, as computed by a single bottom up
+     * walk of the document so that classifying a node never needs to look at its descendants, together with the
+     * text of the nodes that the builder reads.
+     */
+    private static final class NodeKinds {
+        static final int HEADER = 1;
+        static final int ROOT = 1 << 1;
+        static final int PARA = 1 << 2;
+        static final int SUPER = 1 << 3;
+        static final int CODE = 1 << 4;
+        static final int VERBATIM = 1 << 5;
+        /**
+         * A list item with a {@link RootNode} child.
+         */
+        static final int ITEM = 1 << 6;
+        /**
+         * A bullet list with an {@link #ITEM} child.
+         */
+        static final int BULLET = 1 << 7;
+        static final int DEFINITION_TERM = 1 << 8;
+        static final int DEFINITION = 1 << 9;
+        /**
+         * A definition list with both {@link #DEFINITION_TERM} and {@link #DEFINITION} children.
+         */
+        static final int DEFINITION_LIST = 1 << 10;
+        /**
+         * A node with a {@link #CODE} descendant.
+         */
+        static final int HAS_CODE = 1 << 11;
+        /**
+         * A node with a {@link #VERBATIM} descendant.
+         */
+        static final int HAS_VERBATIM = 1 << 12;
+        /**
+         * A node with a {@link #BULLET} descendant.
+         */
+        static final int HAS_BULLET = 1 << 13;
+
+        private final Map<Node, Integer> kinds = new IdentityHashMap<Node, Integer>();
 
-        private WithText(Matcher<? super String> matcher) {
-            textMatcher = matcher;
+        /**
+         * The text of the nodes that have been asked for, as documents are shared this must be safe for concurrent
+         * use. Nodes do not override {@link Object#equals(Object)} so this is an identity map.
+         */
+        private final ConcurrentMap<Node, String> texts = new ConcurrentHashMap<Node, String>();
+
+        private NodeKinds(Node root) {
+            classify(root);
         }
 
-        //@Override
-        public boolean matches(Object item) {
-            if (!(item instanceof Node)) {
-                return false;
-            }
-            StringBuilder builder = new StringBuilder();
-            Node node = (Node) item;
+        /**
+         * Tests a node.
+         *
+         * @param node  the node.
+         * @param kinds the kinds, or'ed together.
+         * @return {@code true} if the node is any of the kinds.
+         */
+        boolean is(Node node, int kinds) {
+            Integer flags = this.kinds.get(node);
+            return flags != null && (flags & kinds) != 0;
+        }
+
+        /**
+         * Returns the text of a node, as {@link MarkdownProjectModelBuilder#getText(Node)} would, computing it at
+         * most once per node.
+         *
+         * @param node the node.
+         * @return the text.
+         */
+        String text(Node node) {
             if (node instanceof TextNode) {
-                builder.append(TextNode.class.cast(node).getText());
-            } else {
-                for (Node n : node.getChildren()) {
-                    if (n instanceof TextNode) {
-                        builder.append(TextNode.class.cast(n).getText());
-                    } else if (n instanceof SuperNode) {
-                        builder.append(getText(SuperNode.class.cast(n)));
-                    }
+                return TextNode.class.cast(node).getText();
+            }
+            String text = texts.get(node);
+            if (text == null) {
+                text = getText(node);
+                String existing = texts.putIfAbsent(node, text);
+                if (existing != null) {
+                    text = existing;
                 }
             }
-            return textMatcher.matches(builder.toString());
+            return text;
         }
 
-        //@Override
-        public void describeTo(Description description) {
-            description.appendText("with text matching ").appendDescriptionOf(textMatcher);
+        private int classify(Node node) {
+            int children = 0;
+            for (Node child : node.getChildren()) {
+                children |= classify(child);
+            }
+            int flags = 0;
+            if (node instanceof HeaderNode) {
+                flags |= HEADER;
+            }
+            if (node instanceof RootNode) {
+                flags |= ROOT;
+            }
+            if (node instanceof ParaNode) {
+                flags |= PARA;
+            }
+            if (node instanceof SuperNode) {
+                flags |= SUPER;
+            }
+            if (node instanceof CodeNode) {
+                flags |= CODE;
+            }
+            if (node instanceof VerbatimNode) {
+                flags |= VERBATIM;
+            }
+            if (node instanceof ListItemNode && (children & ROOT) != 0) {
+                flags |= ITEM;
+            }
+            if (node instanceof BulletListNode && (children & ITEM) != 0) {
+                flags |= BULLET;
+            }
+            if (node instanceof DefinitionTermNode) {
+                flags |= DEFINITION_TERM;
+            }
+            if (node instanceof DefinitionNode) {
+                flags |= DEFINITION;
+            }
+            if (node instanceof DefinitionListNode && (children & DEFINITION_TERM) != 0
+                    && (children & DEFINITION) != 0) {
+                flags |= DEFINITION_LIST;
+            }
+            if ((children & (CODE | HAS_CODE)) != 0) {
+                flags |= HAS_CODE;
+            }
+            if ((children & (VERBATIM | HAS_VERBATIM)) != 0) {
+                flags |= HAS_VERBATIM;
+            }
+            if ((children & (BULLET | HAS_BULLET)) != 0) {
+                flags |= HAS_BULLET;
+            }
+            kinds.put(node, flags);
+            return flags;
         }
     }
 
@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Finds which of a fixed set of substrings occur in a text with a single scan of the text, using an Aho-Corasick
+ * automaton. Matching is exact, callers wanting case insensitive matching should lower case both the patterns and
+ * the text.
+ *
+ * @since 0.7
+ */
+@Immutable
+final class MultiSubstringMatcher {
+
+    private static final int[] NONE = new int[0];
+
+    /**
+     * The number of patterns.
+     */
+    private final int size;
+    /**
+     * The labels of the edges leaving each state.
+     */
+    private final char[][] labels;
+    /**
+     * The states that the edges leaving each state lead to, in the same order as {@link #labels}.
+     */
+    private final int[][] targets;
+    /**
+     * The state to fall back to when there is no edge for the next character.
+     */
+    private final int[] failure;
+    /**
+     * The indices of the patterns that end at each state, including those reached through {@link #failure}.
+     */
+    private final int[][] outputs;
+
+    /**
+     * Builds the automaton.
+     *
+     * @param patterns the patterns to search for, the indices of which are reported by {@link #find(CharSequence)}.
+     */
+    MultiSubstringMatcher(List<String> patterns) {
+        size = patterns.size();
+        List<char[]> labels = new ArrayList<char[]>();
+        List<int[]> targets = new ArrayList<int[]>();
+        List<int[]> outputs = new ArrayList<int[]>();
+        labels.add(new char[0]);
+        targets.add(NONE);
+        outputs.add(NONE);
+        for (int p = 0; p < size; p++) {
+            String pattern = patterns.get(p);
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                int next = edge(labels.get(state), targets.get(state), c);
+                if (next < 0) {
+                    next = labels.size();
+                    labels.add(new char[0]);
+                    targets.add(NONE);
+                    outputs.add(NONE);
+                    char[] l = labels.get(state);
+                    int[] t = targets.get(state);
+                    l = Arrays.copyOf(l, l.length + 1);
+                    t = Arrays.copyOf(t, t.length + 1);
+                    l[l.length - 1] = c;
+                    t[t.length - 1] = next;
+                    labels.set(state, l);
+                    targets.set(state, t);
+                }
+                state = next;
+            }
+            outputs.set(state, append(outputs.get(state), p));
+        }
+        this.labels = labels.toArray(new char[labels.size()][]);
+        this.targets = targets.toArray(new int[targets.size()][]);
+        this.outputs = outputs.toArray(new int[outputs.size()][]);
+        this.failure = new int[this.labels.length];
+        // breadth first, so that the failure state of each state is complete before it is needed
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int child : this.targets[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.removeFirst();
+            for (int i = 0; i < this.labels[state].length; i++) {
+                char c = this.labels[state][i];
+                int child = this.targets[state][i];
+                int fallback = failure[state];
+                int next;
+                while ((next = edge(this.labels[fallback], this.targets[fallback], c)) < 0 && fallback != 0) {
+                    fallback = failure[fallback];
+                }
+                failure[child] = next < 0 || next == child ? 0 : next;
+                this.outputs[child] = merge(this.outputs[child], this.outputs[failure[child]]);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of patterns.
+     *
+     * @return the number of patterns.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Finds the patterns that occur in the text.
+     *
+     * @param text the text to search.
+     * @return the indices of the patterns that occur in the text.
+     */
+    BitSet find(CharSequence text) {
+        BitSet found = new BitSet(size);
+        for (int p : outputs[0]) {
+            found.set(p);
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int next;
+            while ((next = edge(labels[state], targets[state], c)) < 0 && state != 0) {
+                state = failure[state];
+            }
+            state = next < 0 ? 0 : next;
+            for (int p : outputs[state]) {
+                found.set(p);
+            }
+        }
+        return found;
+    }
+
+    private static int edge(char[] labels, int[] targets, char c) {
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] == c) {
+                return targets[i];
+            }
+        }
+        return -1;
+    }
+
+    private static int[] append(int[] values, int value) {
+        int[] result = Arrays.copyOf(values, values.length + 1);
+        result[values.length] = value;
+        return result;
+    }
+
+    private static int[] merge(int[] values, int[] more) {
+        if (more.length == 0) {
+            return values;
+        }
+        int[] result = Arrays.copyOf(values, values.length + more.length);
+        System.arraycopy(more, 0, result, values.length, more.length);
+        return result;
+    }
+}
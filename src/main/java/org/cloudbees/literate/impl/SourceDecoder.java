@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl;
+
+import com.google.common.base.Charsets;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.cloudbees.literate.api.v1.ProjectModelBudgetExceededException;
+import org.cloudbees.literate.api.v1.vfs.ProjectRepository;
+import org.cloudbees.literate.api.v1.vfs.SizedProjectRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Reads and decodes source files into a single exactly sized {@code char[]}. A byte order mark selects UTF-8,
+ * UTF-16BE or UTF-16LE, otherwise the bytes are decoded as UTF-8 and, if they are not valid UTF-8, as ISO-8859-1 so
+ * that every file decodes to something regardless of the platform default charset.
+ *
+ * @since 0.7
+ */
+final class SourceDecoder {
+
+    private SourceDecoder() {
+        // utility class
+    }
+
+    /**
+     * Reads and decodes the source, failing as soon as it is larger than the budget. When the repository can
+     * report the size of the file the bytes are read into a single buffer of that size.
+     *
+     * @param repository    the repository.
+     * @param stream        the source.
+     * @param filePath      the file being read.
+     * @param maxSourceSize the maximum number of characters of source.
+     * @return the source.
+     * @throws IOException                          when things go wrong.
+     * @throws ProjectModelBudgetExceededException if the source is too large.
+     */
+    @NonNull
+    static char[] read(@NonNull ProjectRepository repository, @NonNull InputStream stream, @NonNull String filePath,
+                       long maxSourceSize) throws IOException, ProjectModelBudgetExceededException {
+        // no encoding takes more than four bytes per character
+        long limit = Math.min(maxSourceSize, (Integer.MAX_VALUE - 9) / 4) * 4;
+        long size = repository instanceof SizedProjectRepository
+                ? ((SizedProjectRepository) repository).getSize(filePath)
+                : -1;
+        if (size > limit) {
+            throw sourceTooLarge(filePath, maxSourceSize);
+        }
+        byte[] bytes = new byte[(int) (size >= 0 ? size : Math.min(limit, 8192))];
+        int length = 0;
+        while (true) {
+            if (length == bytes.length) {
+                // either the size was right, in which case we are at the end, or the file grew
+                int b = stream.read();
+                if (b == -1) {
+                    break;
+                }
+                if (length + 1 > limit) {
+                    throw sourceTooLarge(filePath, maxSourceSize);
+                }
+                bytes = Arrays.copyOf(bytes, (int) Math.min(limit, Math.max(16, bytes.length * 2L)));
+                bytes[length++] = (byte) b;
+            }
+            int count = stream.read(bytes, length, bytes.length - length);
+            if (count == -1) {
+                break;
+            }
+            length += count;
+        }
+        char[] chars = decode(bytes, length);
+        if (chars.length > maxSourceSize) {
+            throw sourceTooLarge(filePath, maxSourceSize);
+        }
+        return chars;
+    }
+
+    private static ProjectModelBudgetExceededException sourceTooLarge(String filePath, long maxSourceSize) {
+        return new ProjectModelBudgetExceededException(
+                filePath + " is larger than the maximum of " + maxSourceSize + " characters");
+    }
+
+    /**
+     * Decodes the source.
+     *
+     * @param bytes  the buffer holding the source.
+     * @param length the number of bytes of the buffer that hold the source.
+     * @return the characters of the source, without any byte order mark.
+     */
+    @NonNull
+    static char[] decode(@NonNull byte[] bytes, int length) {
+        if (length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF) {
+            char[] chars = decodeUtf8(bytes, 3, length - 3);
+            return chars != null ? chars : decode(Charsets.ISO_8859_1, bytes, 3, length - 3, length - 3);
+        }
+        if (length >= 2 && bytes[0] == (byte) 0xFE && bytes[1] == (byte) 0xFF) {
+            return decode(Charsets.UTF_16BE, bytes, 2, length - 2, (length - 1) / 2);
+        }
+        if (length >= 2 && bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xFE) {
+            return decode(Charsets.UTF_16LE, bytes, 2, length - 2, (length - 1) / 2);
+        }
+        char[] chars = decodeUtf8(bytes, 0, length);
+        return chars != null ? chars : decode(Charsets.ISO_8859_1, bytes, 0, length, length);
+    }
+
+    /**
+     * Strictly decodes UTF-8, counting the characters up front so that the result is allocated exactly once.
+     *
+     * @param bytes  the buffer.
+     * @param offset the offset of the first byte.
+     * @param length the number of bytes.
+     * @return the characters or {@code null} if the bytes are not valid UTF-8.
+     */
+    @CheckForNull
+    private static char[] decodeUtf8(byte[] bytes, int offset, int length) {
+        int count = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int b = bytes[i];
+            if ((b & 0xC0) != 0x80) {
+                // lead byte, four byte sequences need a surrogate pair
+                count += (b & 0xF8) == 0xF0 ? 2 : 1;
+            }
+        }
+        char[] chars = new char[count];
+        return tryDecode(Charsets.UTF_8, CodingErrorAction.REPORT, bytes, offset, length, chars) ? chars : null;
+    }
+
+    /**
+     * Decodes with a charset that cannot fail, replacing malformed input.
+     *
+     * @param charset the charset.
+     * @param bytes   the buffer.
+     * @param offset  the offset of the first byte.
+     * @param length  the number of bytes.
+     * @param count   the expected number of characters.
+     * @return the characters.
+     */
+    @NonNull
+    private static char[] decode(Charset charset, byte[] bytes, int offset, int length, int count) {
+        char[] chars = new char[count];
+        if (tryDecode(charset, CodingErrorAction.REPLACE, bytes, offset, length, chars)) {
+            return chars;
+        }
+        // the estimate was wrong, let the JDK work out the size
+        return new String(bytes, offset, length, charset).toCharArray();
+    }
+
+    private static boolean tryDecode(Charset charset, CodingErrorAction action, byte[] bytes, int offset,
+                                     int length, char[] chars) {
+        CharsetDecoder decoder = charset.newDecoder().onMalformedInput(action).onUnmappableCharacter(action);
+        CharBuffer out = CharBuffer.wrap(chars);
+        CoderResult result = decoder.decode(ByteBuffer.wrap(bytes, offset, length), out, true);
+        if (result.isUnderflow()) {
+            result = decoder.flush(out);
+        }
+        return result.isUnderflow() && !out.hasRemaining();
+    }
+}
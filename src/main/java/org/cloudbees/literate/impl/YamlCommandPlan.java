@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.Immutable;
+import org.cloudbees.literate.api.v1.ExecutionEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The commands of a YAML build step compiled once so that they can be evaluated for each environment without
+ * walking the YAML value again. Strings and lists of strings compile to unconditional runs of commands, which are
+ * shared by every environment, while mappings compile to branches keyed by the label that an environment must have.
+ *
+ * @since 0.7
+ */
+@Immutable
+final class YamlCommandPlan {
+
+    /**
+     * The plan of a value that holds no commands.
+     */
+    private static final YamlCommandPlan EMPTY = new YamlCommandPlan(new Object[0]);
+
+    /**
+     * Each step is either an unconditional {@code List<String>} run of commands or a {@link Branch}, adjacent runs
+     * are merged when compiling.
+     */
+    private final Object[] steps;
+
+    private YamlCommandPlan(Object[] steps) {
+        this.steps = steps;
+    }
+
+    /**
+     * Compiles a YAML value.
+     *
+     * @param value the value.
+     * @return the plan.
+     */
+    @NonNull
+    static YamlCommandPlan compile(@CheckForNull Object value) {
+        List<Object> steps = new ArrayList<Object>();
+        compile(value, steps);
+        if (steps.isEmpty()) {
+            return EMPTY;
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            if (steps.get(i) instanceof List) {
+                steps.set(i, Collections.unmodifiableList((List<?>) steps.get(i)));
+            }
+        }
+        return new YamlCommandPlan(steps.toArray());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void compile(Object value, List<Object> steps) {
+        if (value instanceof Map) {
+            List<String> labels = new ArrayList<String>();
+            List<YamlCommandPlan> plans = new ArrayList<YamlCommandPlan>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                // only string keys can ever be one of the labels of an environment
+                if (entry.getKey() instanceof String) {
+                    YamlCommandPlan plan = compile(entry.getValue());
+                    if (plan != EMPTY) {
+                        labels.add((String) entry.getKey());
+                        plans.add(plan);
+                    }
+                }
+            }
+            if (!labels.isEmpty()) {
+                steps.add(new Branch(labels.toArray(new String[labels.size()]),
+                        plans.toArray(new YamlCommandPlan[plans.size()])));
+            }
+        } else if (value instanceof List) {
+            for (Object command : (List<Object>) value) {
+                compile(command, steps);
+            }
+        } else if (value instanceof String) {
+            Object last = steps.isEmpty() ? null : steps.get(steps.size() - 1);
+            if (last instanceof List) {
+                ((List<String>) last).add((String) value);
+            } else {
+                List<String> run = new ArrayList<String>();
+                run.add((String) value);
+                steps.add(run);
+            }
+        }
+    }
+
+    /**
+     * Returns the commands for the supplied environment. When the plan has no branches the returned list is shared by
+     * every environment.
+     *
+     * @param environment the environment.
+     * @return the read only commands for the environment.
+     */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    List<String> commands(@NonNull ExecutionEnvironment environment) {
+        if (steps.length == 0) {
+            return Collections.emptyList();
+        }
+        if (steps.length == 1 && steps[0] instanceof List) {
+            return (List<String>) steps[0];
+        }
+        List<String> result = new ArrayList<String>();
+        appendCommands(environment.getLabels(), result);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void appendCommands(Set<String> labels, List<String> result) {
+        for (Object step : steps) {
+            if (step instanceof List) {
+                result.addAll((List<String>) step);
+            } else {
+                Branch branch = (Branch) step;
+                for (int i = 0; i < branch.labels.length; i++) {
+                    if (labels.contains(branch.labels[i])) {
+                        branch.plans[i].appendCommands(labels, result);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The plans of a mapping, in mapping order, each applying to the environments with its label.
+     */
+    private static final class Branch {
+        private final String[] labels;
+        private final YamlCommandPlan[] plans;
+
+        private Branch(String[] labels, YamlCommandPlan[] plans) {
+            this.labels = labels;
+            this.plans = plans;
+        }
+    }
+}
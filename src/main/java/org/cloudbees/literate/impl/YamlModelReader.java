@@ -0,0 +1,275 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.NotThreadSafe;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.CollectionEndEvent;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.DocumentEndEvent;
+import org.yaml.snakeyaml.events.DocumentStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.NodeEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.SequenceEndEvent;
+import org.yaml.snakeyaml.events.StreamEndEvent;
+import org.yaml.snakeyaml.events.StreamStartEvent;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.parser.Parser;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the top level mapping of a YAML model straight from the parser events, without first composing a node
+ * graph of the whole document. The values of the keys that the builder reads in full are built just as a
+ * {@link SafeConstructor} would build them. The values of every other key can only ever contribute plain commands,
+ * so within them the contents of mappings are skipped and each mapping is replaced by an empty one. Nodes with an
+ * anchor are always built in full as an alias elsewhere may need them.
+ * <p/>
+ * The less common parts of YAML, explicitly tagged collections, merge keys and multiple documents, are not handled
+ * and cause a {@link Unsupported} so that the caller can fall back to loading the document in full.
+ *
+ * @since 0.7
+ */
+@NotThreadSafe
+final class YamlModelReader {
+
+    /**
+     * Resolves the tags of untagged scalars.
+     */
+    private final Resolver resolver = new Resolver();
+
+    /**
+     * Constructs the scalars that are not plain strings.
+     */
+    private final ScalarConstructor constructor = new ScalarConstructor();
+
+    /**
+     * The values of the anchors seen so far in the current document.
+     */
+    private final Map<String, Object> anchors = new HashMap<String, Object>();
+
+    /**
+     * The parser of the current document.
+     */
+    private Parser parser;
+
+    /**
+     * Reads the top level mapping of a document.
+     *
+     * @param parser   the parser of the document.
+     * @param fullKeys the top level keys whose values must be read in full.
+     * @return the top level mapping, or {@code null} if the document is empty or is not a mapping.
+     * @throws Unsupported if the document uses parts of YAML that this reader does not handle.
+     * @throws org.yaml.snakeyaml.error.YAMLException if the document is not valid YAML.
+     */
+    @CheckForNull
+    Map<Object, Object> read(@NonNull Parser parser, @NonNull Set<String> fullKeys) throws Unsupported {
+        this.parser = parser;
+        anchors.clear();
+        try {
+            expect(StreamStartEvent.class);
+            if (parser.peekEvent() instanceof StreamEndEvent) {
+                return null;
+            }
+            expect(DocumentStartEvent.class);
+            Event event = parser.getEvent();
+            Map<Object, Object> result = null;
+            if (event instanceof MappingStartEvent) {
+                checkTag((MappingStartEvent) event, Tag.MAP);
+                result = register((MappingStartEvent) event, new LinkedHashMap<Object, Object>());
+                while (!((event = parser.getEvent()) instanceof MappingEndEvent)) {
+                    Object key = key(event);
+                    result.put(key, value(parser.getEvent(), !fullKeys.contains(key)));
+                }
+            } else {
+                value(event, false);
+            }
+            expect(DocumentEndEvent.class);
+            if (!(parser.peekEvent() instanceof StreamEndEvent)) {
+                // Yaml.load will report this
+                throw new Unsupported();
+            }
+            return result;
+        } finally {
+            parser = null;
+            anchors.clear();
+        }
+    }
+
+    private void expect(Class<? extends Event> type) throws Unsupported {
+        if (!type.isInstance(parser.getEvent())) {
+            throw new Unsupported();
+        }
+    }
+
+    private Object key(Event event) throws Unsupported {
+        if (event instanceof ScalarEvent) {
+            ScalarEvent scalar = (ScalarEvent) event;
+            if (isPlain(scalar.getTag())) {
+                Tag tag = resolver.resolve(NodeId.scalar, scalar.getValue(),
+                        scalar.getImplicit().canOmitTagInPlainScalar());
+                if (Tag.MERGE.equals(tag)) {
+                    throw new Unsupported();
+                }
+                if (Tag.VALUE.equals(tag)) {
+                    // SafeConstructor treats the value key as a plain string
+                    register(scalar, scalar.getValue());
+                    return scalar.getValue();
+                }
+            }
+        }
+        return value(event, false);
+    }
+
+    /**
+     * Reads a value.
+     *
+     * @param event         the first event of the value.
+     * @param skipMappings  {@code true} to skip the contents of any mappings.
+     * @return the value.
+     * @throws Unsupported if the value uses parts of YAML that this reader does not handle.
+     */
+    private Object value(Event event, boolean skipMappings) throws Unsupported {
+        if (event instanceof AliasEvent) {
+            String anchor = ((AliasEvent) event).getAnchor();
+            if (!anchors.containsKey(anchor)) {
+                // Yaml.load will report this
+                throw new Unsupported();
+            }
+            return anchors.get(anchor);
+        }
+        if (event instanceof ScalarEvent) {
+            ScalarEvent scalar = (ScalarEvent) event;
+            Tag tag = isPlain(scalar.getTag())
+                    ? resolver.resolve(NodeId.scalar, scalar.getValue(), scalar.getImplicit().canOmitTagInPlainScalar())
+                    : new Tag(scalar.getTag());
+            Object value = Tag.STR.equals(tag)
+                    ? scalar.getValue()
+                    : constructor.construct(new ScalarNode(tag, isPlain(scalar.getTag()), scalar.getValue(),
+                            scalar.getStartMark(), scalar.getEndMark(), scalar.getStyle()));
+            return register(scalar, value);
+        }
+        if (event instanceof MappingStartEvent) {
+            MappingStartEvent start = (MappingStartEvent) event;
+            checkTag(start, Tag.MAP);
+            if (skipMappings && start.getAnchor() == null) {
+                skip();
+                return Collections.emptyMap();
+            }
+            Map<Object, Object> map = register(start, new LinkedHashMap<Object, Object>());
+            while (!((event = parser.getEvent()) instanceof MappingEndEvent)) {
+                Object key = key(event);
+                map.put(key, value(parser.getEvent(), false));
+            }
+            return map;
+        }
+        CollectionStartEvent start = (CollectionStartEvent) event;
+        checkTag(start, Tag.SEQ);
+        List<Object> list = register(start, new ArrayList<Object>());
+        while (!((event = parser.getEvent()) instanceof SequenceEndEvent)) {
+            list.add(value(event, skipMappings && start.getAnchor() == null));
+        }
+        return list;
+    }
+
+    /**
+     * Skips the rest of a mapping, building only the nodes with anchors.
+     *
+     * @throws Unsupported if the mapping uses parts of YAML that this reader does not handle.
+     */
+    private void skip() throws Unsupported {
+        int depth = 1;
+        while (depth > 0) {
+            Event event = parser.getEvent();
+            if (event instanceof NodeEvent && ((NodeEvent) event).getAnchor() != null
+                    && !(event instanceof AliasEvent)) {
+                value(event, false);
+            } else if (event instanceof CollectionStartEvent) {
+                checkTag((CollectionStartEvent) event, event instanceof MappingStartEvent ? Tag.MAP : Tag.SEQ);
+                depth++;
+            } else if (event instanceof CollectionEndEvent) {
+                depth--;
+            }
+        }
+    }
+
+    private void checkTag(CollectionStartEvent event, Tag expected) throws Unsupported {
+        if (!isPlain(event.getTag()) && !expected.getValue().equals(event.getTag())) {
+            throw new Unsupported();
+        }
+    }
+
+    private <T> T register(NodeEvent event, T value) {
+        if (event.getAnchor() != null) {
+            anchors.put(event.getAnchor(), value);
+        }
+        return value;
+    }
+
+    private static boolean isPlain(String tag) {
+        return tag == null || "!".equals(tag);
+    }
+
+    /**
+     * Signals that a document uses parts of YAML that this reader does not handle.
+     */
+    static final class Unsupported extends Exception {
+        /**
+         * Ensure consistent serialization.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * Exposes the scalar constructors of a {@link SafeConstructor}.
+     */
+    private static final class ScalarConstructor extends SafeConstructor {
+        Object construct(ScalarNode node) {
+            return getConstructor(node).construct(node);
+        }
+    }
+}
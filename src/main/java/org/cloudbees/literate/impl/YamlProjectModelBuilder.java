@@ -28,25 +28,36 @@ import org.apache.commons.io.IOUtils;
 import org.cloudbees.literate.api.v1.ExecutionEnvironment;
 import org.cloudbees.literate.api.v1.ProjectModel;
 import org.cloudbees.literate.api.v1.ProjectModel.Builder;
+import org.cloudbees.literate.api.v1.ProjectModelBudgetExceededException;
 import org.cloudbees.literate.api.v1.ProjectModelBuildingException;
 import org.cloudbees.literate.api.v1.ProjectModelRequest;
+import org.cloudbees.literate.api.v1.ProjectModelSourceNotFoundException;
+import org.cloudbees.literate.api.v1.vfs.CachedRootRepository;
 import org.cloudbees.literate.api.v1.vfs.ProjectRepository;
 import org.cloudbees.literate.impl.yaml.Language;
-import org.cloudbees.literate.impl.yaml.environment.EnvironmentDecorator;
+import org.cloudbees.literate.impl.yaml.YamlExtensions;
+import org.cloudbees.literate.impl.yaml.environment.EnvironmentExpansion;
+import org.cloudbees.literate.impl.yaml.environment.EnvironmentRule;
 import org.cloudbees.literate.spi.v1.ProjectModelBuilder;
-import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.composer.Composer;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.parser.ParserImpl;
+import org.yaml.snakeyaml.reader.StreamReader;
+import org.yaml.snakeyaml.resolver.Resolver;
 
+import java.io.CharArrayReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.ServiceLoader;
 import java.util.Set;
 
 /**
@@ -56,18 +67,35 @@ import java.util.Set;
 @ProjectModelBuilder.Priority(-1000)
 public class YamlProjectModelBuilder implements ProjectModelBuilder {
 
+    /**
+     * Resolves the tags of untagged scalars for the full loader, a resolver is not modified once it is constructed.
+     */
+    private static final Resolver RESOLVER = new Resolver();
+
+    /**
+     * The readers that extract the model from the parser events, one per thread as they are not thread safe.
+     */
+    private static final ThreadLocal<YamlModelReader> READER = new ThreadLocal<YamlModelReader>() {
+        @Override
+        protected YamlModelReader initialValue() {
+            return new YamlModelReader();
+        }
+    };
+
     /**
      * {@inheritDoc}
      */
     //@Override
     public ProjectModel build(ProjectModelRequest request) throws IOException, ProjectModelBuildingException {
+        // the markers and the language conventions all look at the root, so list it once
+        ProjectRepository repository = CachedRootRepository.of(request.getRepository());
         for (String name : markerFiles(request.getBaseName())) {
-            if (request.getRepository().isFile(name)) {
-                return new Parser(request).parseProjectModel(request.getRepository(), name);
+            if (repository.isFile(name)) {
+                return new Parser(request).parseProjectModel(repository, name);
 
             }
         }
-        throw new ProjectModelBuildingException("Not a YAML based literate project");
+        throw new ProjectModelSourceNotFoundException("Not a YAML based literate project");
     }
 
     /**
@@ -80,16 +108,44 @@ public class YamlProjectModelBuilder implements ProjectModelBuilder {
 
     private static class Parser {
 
+        /**
+         * The key of the matrix exclusions in the environment variables section.
+         */
+        private static final String EXCLUDE = "exclude";
+
+        /**
+         * The key of the matrix inclusions in the environment variables section.
+         */
+        private static final String INCLUDE = "include";
+
         private final String[] buildIds;
+        private final Set<String> buildIdSet;
+        private final Set<String> taskIds;
         private final String environmentsId;
         private final String envvarsId;
         private final String languageId;
+        private final int maxEnvironments;
+        private final long maxSourceSize;
+        private final int maxAliasedNodes;
+        private final int maxNestingDepth;
+        /**
+         * The top level keys whose values are read in full, the values of the other keys can only be tasks.
+         */
+        private final Set<String> fullKeys;
 
         public Parser(@NonNull ProjectModelRequest request) {
             this.buildIds = request.getBuildId().split("[, ]");
+            this.buildIdSet = new HashSet<String>(Arrays.asList(buildIds));
+            this.taskIds = request.getTaskIds();
             this.environmentsId = request.getEnvironmentsId();
             this.envvarsId = request.getEnvvarsId();
             this.languageId = "language";
+            this.maxEnvironments = request.getMaxEnvironments();
+            this.maxSourceSize = request.getMaxSourceSize();
+            this.maxAliasedNodes = request.getMaxAliasedNodes();
+            this.maxNestingDepth = request.getMaxNestingDepth();
+            this.fullKeys = new HashSet<String>(buildIdSet);
+            this.fullKeys.addAll(Arrays.asList(environmentsId, envvarsId, languageId));
         }
 
         /**
@@ -136,44 +192,100 @@ public class YamlProjectModelBuilder implements ProjectModelBuilder {
          *             invalid model
          */
         public ProjectModel parseProjectModel(ProjectRepository repository, String name) throws IOException, ProjectModelBuildingException {
+            Map<String, Object> model = load(repository, name);
+            Map<String, Object> decoratedModel = decorateWithLanguage(model, repository);
+            return internalBuild(decoratedModel);
+        }
+
+        /**
+         * Loads the top level mapping of a file, reading it from the parser events where possible and falling back
+         * to loading the whole document when the file uses YAML that the {@link YamlModelReader} does not handle or
+         * that it cannot read, so that the full loader decides what is valid. The file is read once, and both ways of
+         * loading it stop as soon as it exceeds the size, alias or nesting limits of the request.
+         *
+         * @param repository The repository containing the file
+         * @param name the name of the file to load
+         * @return the top level mapping
+         * @throws IOException in case we encounter I/O issue while accessing
+         *             the repository
+         * @throws ProjectModelBuildingException in case the file is not a YAML mapping or exceeds the limits
+         */
+        @SuppressWarnings("unchecked")
+        private Map<String, Object> load(ProjectRepository repository, String name) throws IOException, ProjectModelBuildingException {
+            char[] source;
             InputStream stream = repository.get(name);
             try {
-                Yaml yaml = new Yaml();
-                @SuppressWarnings("unchecked")
-                Map<String, Object> model = (Map<String, Object>) yaml.load(stream);
-                Map<String, Object> decoratedModel = decorateWithLanguage(model, repository);
-                return internalBuild(decoratedModel);
+                source = SourceDecoder.read(repository, stream, name, maxSourceSize);
             } finally {
                 IOUtils.closeQuietly(stream);
             }
+            Object model;
+            try {
+                try {
+                    model = READER.get().read(parser(source), fullKeys);
+                } catch (YamlModelReader.Unsupported e) {
+                    model = loadFully(source, name);
+                } catch (YAMLException e) {
+                    model = loadFully(source, name);
+                }
+            } catch (BoundedYamlParser.LimitExceeded e) {
+                throw new ProjectModelBudgetExceededException(name + " cannot be parsed as " + e.getMessage());
+            }
+            if (!(model instanceof Map)) {
+                throw new ProjectModelBuildingException(name + " does not contain a YAML mapping");
+            }
+            return (Map<String, Object>) model;
+        }
+
+        /**
+         * Loads the whole document. The source is untrusted, so the constructor only builds maps, lists and scalars
+         * and never instantiates the classes named by tags.
+         */
+        private Object loadFully(char[] source, String name) throws ProjectModelBuildingException {
+            SafeConstructor constructor = new SafeConstructor();
+            constructor.setComposer(new Composer(parser(source), RESOLVER));
+            try {
+                return constructor.getSingleData(Object.class);
+            } catch (YAMLException e) {
+                throw new ProjectModelBuildingException("Unable to parse " + name, e);
+            }
+        }
+
+        private org.yaml.snakeyaml.parser.Parser parser(char[] source) {
+            return new BoundedYamlParser(new ParserImpl(new StreamReader(new CharArrayReader(source))), maxAliasedNodes,
+                    maxNestingDepth);
         }
 
         private Map<String, Object> decorateWithLanguage(Map<String, Object> model, ProjectRepository repository) throws IOException {
             String language = (String) model.get(languageId);
-            for (Language l : ServiceLoader.load(Language.class, getClass().getClassLoader())) {
-                if (l.supported().contains(language)) {
-                    return l.decorate(model, repository);
-                }
-            }
-            return model;
+            Language l = YamlExtensions.of(getClass().getClassLoader()).getLanguage(language);
+            return l == null ? model : l.decorate(model, repository);
         }
 
         private ProjectModel internalBuild(Map<String, Object> model) throws ProjectModelBuildingException {
             Builder builder = ProjectModel.builder();
 
-            List<ExecutionEnvironment> environments = consumeEnvironmentSection(model);
-            environments = decorateWithEnvironmentVariables(environments, model);
+            List<ExecutionEnvironment> environments = expand(decorateWithEnvironmentVariables(
+                    new EnvironmentExpansion(consumeEnvironmentSection(model), getRules(model, EXCLUDE)), model),
+                    getRules(model, INCLUDE));
             builder.addEnvironments(environments);
 
-            Map<ExecutionEnvironment, List<String>> build = new HashMap<ExecutionEnvironment, List<String>>();
+            Map<ExecutionEnvironment, List<String>> build = new LinkedHashMap<ExecutionEnvironment, List<String>>();
             for (String step : buildIds) {
                 Object value = model.get(step);
                 if (value != null) {
+                    // compile the step once rather than walking its value for every environment
+                    YamlCommandPlan plan = YamlCommandPlan.compile(value);
                     for (ExecutionEnvironment environment : environments) {
-                        if (build.containsKey(environment)) {
-                            build.get(environment).addAll(getCommands(value, environment));
-                        } else {
-                            build.put(environment, new ArrayList<String>(getCommands(value, environment)));
+                        List<String> commands = plan.commands(environment);
+                        List<String> existing = build.get(environment);
+                        if (existing == null) {
+                            build.put(environment, commands);
+                        } else if (!commands.isEmpty()) {
+                            List<String> joined = new ArrayList<String>(existing.size() + commands.size());
+                            joined.addAll(existing);
+                            joined.addAll(commands);
+                            build.put(environment, joined);
                         }
                     }
                 }
@@ -183,9 +295,9 @@ public class YamlProjectModelBuilder implements ProjectModelBuilder {
             return builder.build();
         }
 
-        private List<ExecutionEnvironment> decorateWithEnvironmentVariables(List<ExecutionEnvironment> environments, Map<String, Object> model)
+        private EnvironmentExpansion decorateWithEnvironmentVariables(EnvironmentExpansion environments, Map<String, Object> model)
                 throws ProjectModelBuildingException {
-            List<ExecutionEnvironment> result = new ArrayList<ExecutionEnvironment>(environments);
+            EnvironmentExpansion result = environments;
             Object object = model.get(envvarsId);
             if (object instanceof String) {
                 result = applyDecorators(result, Collections.singleton((String) object), "matrix");
@@ -195,6 +307,9 @@ public class YamlProjectModelBuilder implements ProjectModelBuilder {
                     Collection<String> variables;
                     String key = entry.getKey();
                     Object value = entry.getValue();
+                    if (EXCLUDE.equals(key) || INCLUDE.equals(key)) {
+                        continue;
+                    }
                     if (value instanceof Collection) {
                         variables = checkCollection((Collection) value);
                     } else if (value instanceof String) {
@@ -208,19 +323,87 @@ public class YamlProjectModelBuilder implements ProjectModelBuilder {
             return result;
         }
 
-        private List<ExecutionEnvironment> applyDecorators(List<ExecutionEnvironment> envs, Collection<String> variables, String sectionName) {
-            List<ExecutionEnvironment> input = new ArrayList<ExecutionEnvironment>(envs);
-            List<ExecutionEnvironment> output = new ArrayList<ExecutionEnvironment>();
-            ServiceLoader<EnvironmentDecorator> decorators = ServiceLoader.load(EnvironmentDecorator.class, getClass().getClassLoader());
-            for (EnvironmentDecorator decorator : decorators) {
-                if (decorator.acceptSection(sectionName)) {
-                    for (ExecutionEnvironment e : input) {
-                        output.addAll(decorator.decorate(e, variables));
-                    }
-                    input = output;
+        private EnvironmentExpansion applyDecorators(EnvironmentExpansion envs, Collection<String> variables, String sectionName)
+                throws ProjectModelBuildingException {
+            try {
+                return envs.decorate(YamlExtensions.of(getClass().getClassLoader()).getDecorators(sectionName),
+                        variables);
+            } catch (IllegalArgumentException e) {
+                throw invalidEntry(sectionName, e);
+            }
+        }
+
+        /**
+         * Reads the matrix {@code include} or {@code exclude} rules of the environment variables section.
+         *
+         * @param model the input model
+         * @param key either {@link #INCLUDE} or {@link #EXCLUDE}
+         * @return the rules
+         * @throws ProjectModelBuildingException if the rules are not a string or a list of strings
+         */
+        private List<EnvironmentRule> getRules(Map<String, Object> model, String key)
+                throws ProjectModelBuildingException {
+            Object object = model.get(envvarsId);
+            if (!(object instanceof Map)) {
+                return Collections.emptyList();
+            }
+            Map<String, Object> map = checkMap((Map) object);
+            Object value = map.get(key);
+            Collection<String> rules;
+            if (value == null) {
+                return Collections.emptyList();
+            } else if (value instanceof Collection) {
+                rules = checkCollection((Collection) value);
+            } else if (value instanceof String) {
+                rules = Collections.singleton((String) value);
+            } else {
+                throw invalidEnvironmentModel(map);
+            }
+            List<EnvironmentRule> result = new ArrayList<EnvironmentRule>(rules.size());
+            for (String rule : rules) {
+                try {
+                    result.add(EnvironmentRule.parse(rule));
+                } catch (IllegalArgumentException e) {
+                    throw invalidEntry(key, e);
                 }
             }
-            return output;
+            return result;
+        }
+
+        /**
+         * Expands the environments and adds the included ones, failing before we expand them when there are expected
+         * to be too many. Exclusions can only lower the expected count, so we only fail up front without them.
+         *
+         * @param expansion the environments to expand
+         * @param inclusions the environments to add
+         * @return the expanded environments
+         * @throws ProjectModelBudgetExceededException if there are more environments than the request allows
+         */
+        private List<ExecutionEnvironment> expand(EnvironmentExpansion expansion, List<EnvironmentRule> inclusions)
+                throws ProjectModelBudgetExceededException {
+            long expectedSize = expansion.expectedSize() + inclusions.size();
+            if (expectedSize > maxEnvironments && !expansion.hasExclusions()) {
+                throw new ProjectModelBudgetExceededException("The model is expected to expand into "
+                        + expectedSize + " environments, more than the limit of " + maxEnvironments);
+            }
+            List<ExecutionEnvironment> result = new ArrayList<ExecutionEnvironment>(
+                    (int) Math.min(expectedSize, maxEnvironments));
+            for (ExecutionEnvironment environment : expansion) {
+                add(result, environment);
+            }
+            for (EnvironmentRule inclusion : inclusions) {
+                add(result, inclusion.toEnvironment());
+            }
+            return result;
+        }
+
+        private void add(List<ExecutionEnvironment> environments, ExecutionEnvironment environment)
+                throws ProjectModelBudgetExceededException {
+            if (environments.size() == maxEnvironments) {
+                throw new ProjectModelBudgetExceededException(
+                        "The model expands into more than the limit of " + maxEnvironments + " environments");
+            }
+            environments.add(environment);
         }
 
         private Collection<String> checkCollection(Collection raw) throws ProjectModelBuildingException {
@@ -248,6 +431,11 @@ public class YamlProjectModelBuilder implements ProjectModelBuilder {
             return new ProjectModelBuildingException("Specified environment variables are invalid.");
         }
 
+        private ProjectModelBuildingException invalidEntry(String sectionName, IllegalArgumentException e) {
+            return new ProjectModelBuildingException("Invalid " + sectionName + " entry in the " + envvarsId
+                    + " section. " + e.getMessage(), e);
+        }
+
         private ProjectModelBuildingException invalidEnvironmentModel(Map rawMap) {
             // TODO: Make a better error message
             return new ProjectModelBuildingException("Specified environment variables are invalid.");
@@ -326,27 +514,20 @@ public class YamlProjectModelBuilder implements ProjectModelBuilder {
         }
 
         /**
-         * Add tasks to the builder from the input model, excluding some id
+         * Add the requested tasks to the builder from the input model, excluding some id
          * already picked up through buildIds
          *
          * @param builder The ProjectModel builder
          * @param model The raw input model
          */
         private void addTasks(Builder builder, Map<String, Object> model) {
-            for (Entry<String, Object> entry : model.entrySet()) {
-                String key = entry.getKey();
-                Object value = entry.getValue();
-
-                if (!buildIdsContains(key)) {
-                    builder.addTask(key, getCommands(value, ExecutionEnvironment.any()));
+            for (String taskId : taskIds) {
+                if (model.containsKey(taskId) && !buildIdSet.contains(taskId)) {
+                    builder.addTask(taskId, getCommands(model.get(taskId), ExecutionEnvironment.any()));
                 }
             }
         }
 
-        private boolean buildIdsContains(String value) {
-            return Arrays.binarySearch(buildIds, value) >= 0;
-        }
-
     }
 
 }
@@ -0,0 +1,1553 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl.markdown;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.pegdown.ParsingTimeoutException;
+import org.pegdown.PegDownProcessor;
+import org.pegdown.ast.AbstractNode;
+import org.pegdown.ast.AutoLinkNode;
+import org.pegdown.ast.BlockQuoteNode;
+import org.pegdown.ast.BulletListNode;
+import org.pegdown.ast.CodeNode;
+import org.pegdown.ast.DefinitionListNode;
+import org.pegdown.ast.DefinitionNode;
+import org.pegdown.ast.DefinitionTermNode;
+import org.pegdown.ast.EmphNode;
+import org.pegdown.ast.ExpImageNode;
+import org.pegdown.ast.ExpLinkNode;
+import org.pegdown.ast.HeaderNode;
+import org.pegdown.ast.HtmlBlockNode;
+import org.pegdown.ast.InlineHtmlNode;
+import org.pegdown.ast.ListItemNode;
+import org.pegdown.ast.MailLinkNode;
+import org.pegdown.ast.Node;
+import org.pegdown.ast.OrderedListNode;
+import org.pegdown.ast.ParaNode;
+import org.pegdown.ast.RefImageNode;
+import org.pegdown.ast.RefLinkNode;
+import org.pegdown.ast.ReferenceNode;
+import org.pegdown.ast.RootNode;
+import org.pegdown.ast.SimpleNode;
+import org.pegdown.ast.SpecialTextNode;
+import org.pegdown.ast.StrongNode;
+import org.pegdown.ast.SuperNode;
+import org.pegdown.ast.TextNode;
+import org.pegdown.ast.VerbatimNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hand written parser for the Markdown dialect that {@link org.cloudbees.literate.impl.MarkdownProjectModelBuilder}
+ * reads (GitHub style: autolinks, fenced code blocks, hard wraps and definition lists). It follows the block and
+ * inline rules of the pegdown grammar and produces the same pegdown AST node types, including the quirks in how list
+ * items are wrapped in {@link RootNode}s and {@link ParaNode}s, so that the section extraction in the builder gives the
+ * same {@link org.cloudbees.literate.api.v1.ProjectModel} whichever parser produced the tree.
+ * <p/>
+ * Each nesting level is parsed by a forward scan over a character buffer with no rule objects, value stack or
+ * match contexts. Block quotes, HTML blocks and link references are recognised so that they end up in the same
+ * place in the tree, but the content of block quotes is not parsed and line breaks are not represented as nodes,
+ * as nothing in a literate build description is ever read from them.
+ *
+ * @since 0.7
+ */
+public class NativeMarkdownParser {
+
+    /**
+     * The block level HTML tags that can start an HTML block.
+     */
+    private static final String[] HTML_TAGS = {"address", "blockquote", "center", "dd", "dir", "div", "dl", "dt",
+            "fieldset", "form", "frameset", "h1", "h2", "h3", "h4", "h5", "h6", "hr", "isindex", "li", "menu",
+            "noframes", "noscript", "ol", "p", "pre", "script", "style", "table", "tbody", "td", "tfoot", "th",
+            "thead", "tr", "ul"};
+
+    /**
+     * How deeply nested parenthesis in a link source may be before we stop treating it as a link.
+     */
+    private static final int MAX_LINK_SOURCE_DEPTH = 64;
+
+    /**
+     * The maximum time a single {@link #parse(char[])} may take.
+     */
+    private final long maxParsingTimeInMillis;
+
+    /**
+     * Creates a parser with the same default time limit as {@link PegDownProcessor}.
+     */
+    public NativeMarkdownParser() {
+        this(PegDownProcessor.DEFAULT_MAX_PARSING_TIME);
+    }
+
+    /**
+     * Creates a parser with the specified time limit.
+     *
+     * @param maxParsingTimeInMillis the maximum time a single parse may take.
+     */
+    public NativeMarkdownParser(long maxParsingTimeInMillis) {
+        this.maxParsingTimeInMillis = maxParsingTimeInMillis;
+    }
+
+    /**
+     * Parses the supplied source.
+     *
+     * @param source the Markdown source.
+     * @return the parsed document.
+     * @throws ParsingTimeoutException if parsing takes longer than the time limit, just as pegdown would.
+     */
+    @NonNull
+    public RootNode parse(@NonNull char[] source) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxParsingTimeInMillis);
+        // like pegdown we terminate the source with a blank line so that every block is properly closed
+        char[] buf = new char[source.length + 2];
+        System.arraycopy(source, 0, buf, 0, source.length);
+        buf[source.length] = '\n';
+        buf[source.length + 1] = '\n';
+        return new Level(buf, buf.length, 0, deadline).parseRoot();
+    }
+
+    private static boolean isNewline(char c) {
+        return c == '\n' || c == '\r';
+    }
+
+    private static boolean isSpacechar(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isAlphanumeric(char c) {
+        return isLetter(c) || (c >= '0' && c <= '9');
+    }
+
+    private static boolean isSpecialChar(char c) {
+        switch (c) {
+            case '*':
+            case '_':
+            case '`':
+            case '&':
+            case '[':
+            case ']':
+            case '<':
+            case '>':
+            case '!':
+            case '#':
+            case '\\':
+            case '(':
+            case ')':
+            case '{':
+            case '}':
+            case ':':
+            case '~':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isNormalChar(char c) {
+        return !isSpecialChar(c) && !isSpacechar(c) && !isNewline(c);
+    }
+
+    private static boolean isEscapable(char c) {
+        return "*_`&[]<>!#\\'\".+-(){}:|~".indexOf(c) >= 0;
+    }
+
+    /**
+     * The kinds of list that {@link Level#listItem(int, int, SuperNode)} can parse items of.
+     */
+    private static final int BULLET = 0;
+    private static final int ORDERED = 1;
+    private static final int DEFINITION = 2;
+
+    /**
+     * The parser for one nesting level, i.e. the whole document or the content of a single list item block.
+     */
+    private static final class Level {
+        private final char[] buf;
+        private final int len;
+        /**
+         * The offset of this level's buffer in the document, used for the node indices.
+         */
+        private final int offset;
+        /**
+         * The {@link System#nanoTime()} by which the whole document must have been parsed.
+         */
+        private final long deadline;
+        /**
+         * The node produced by the last successful inline or list item rule.
+         */
+        private Node produced;
+        /**
+         * Positions at which an emphasis or a link label is already known not to match, as these rules can
+         * otherwise be retried an exponential number of times on unbalanced input.
+         */
+        private BitSet mismatches;
+
+        private Level(char[] buf, int len, int offset, long deadline) {
+            this.buf = buf;
+            this.len = len;
+            this.offset = offset;
+            this.deadline = deadline;
+        }
+
+        private RootNode parseRoot() {
+            RootNode root = new RootNode();
+            List<Node> blocks = root.getChildren();
+            int p = 0;
+            while (true) {
+                if (System.nanoTime() - deadline > 0) {
+                    throw new ParsingTimeoutException();
+                }
+                int q = skipBlankLines(p);
+                int r = block(q, blocks);
+                if (r < 0) {
+                    break;
+                }
+                p = r;
+            }
+            return root;
+        }
+
+        private <N extends Node> N indexed(N node, int start, int end) {
+            ((AbstractNode) node).setStartIndex(offset + start);
+            ((AbstractNode) node).setEndIndex(offset + end);
+            return node;
+        }
+
+        private static void add(List<Node> nodes, Node node) {
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
+
+        private String slice(int start, int end) {
+            return new String(buf, start, end - start);
+        }
+
+        //// character level rules
+
+        private boolean is(int p, char c) {
+            return p < len && buf[p] == c;
+        }
+
+        private int newline(int p) {
+            if (p < len) {
+                if (buf[p] == '\n') {
+                    return p + 1;
+                }
+                if (buf[p] == '\r') {
+                    return p + 1 < len && buf[p + 1] == '\n' ? p + 2 : p + 1;
+                }
+            }
+            return -1;
+        }
+
+        private int sp(int p) {
+            while (p < len && isSpacechar(buf[p])) {
+                p++;
+            }
+            return p;
+        }
+
+        private int spn1(int p) {
+            p = sp(p);
+            int n = newline(p);
+            return n < 0 ? p : sp(n);
+        }
+
+        private int lineEnd(int p) {
+            while (p < len && !isNewline(buf[p])) {
+                p++;
+            }
+            return p;
+        }
+
+        private int line(int p) {
+            return newline(lineEnd(p));
+        }
+
+        private int blankLine(int p) {
+            return newline(sp(p));
+        }
+
+        private int skipBlankLines(int p) {
+            int r;
+            while ((r = blankLine(p)) >= 0) {
+                p = r;
+            }
+            return p;
+        }
+
+        private int indent(int p) {
+            if (p < len && buf[p] == '\t') {
+                return p + 1;
+            }
+            if (p + 4 <= len && buf[p] == ' ' && buf[p + 1] == ' ' && buf[p + 2] == ' ' && buf[p + 3] == ' ') {
+                return p + 4;
+            }
+            return -1;
+        }
+
+        private int nonindentSpace(int p) {
+            for (int i = 0; i < 3 && p < len && buf[p] == ' '; i++) {
+                p++;
+            }
+            return p;
+        }
+
+        private int spacechars(int p) {
+            return p < len && isSpacechar(buf[p]) ? sp(p) : -1;
+        }
+
+        private int horizontalRule(int p) {
+            int q = nonindentSpace(p);
+            if (q >= len || (buf[q] != '*' && buf[q] != '-' && buf[q] != '_')) {
+                return -1;
+            }
+            char c = buf[q];
+            int count = 0;
+            while (q < len && (buf[q] == c || isSpacechar(buf[q]))) {
+                if (buf[q] == c) {
+                    count++;
+                }
+                q++;
+            }
+            if (count < 3 || (q = newline(q)) < 0 || blankLine(q) < 0) {
+                return -1;
+            }
+            return skipBlankLines(q);
+        }
+
+        private int bullet(int p) {
+            if (horizontalRule(p) >= 0) {
+                return -1;
+            }
+            int q = nonindentSpace(p);
+            if (q < len && (buf[q] == '+' || buf[q] == '*' || buf[q] == '-')) {
+                return spacechars(q + 1);
+            }
+            return -1;
+        }
+
+        private int enumerator(int p) {
+            int q = nonindentSpace(p);
+            int start = q;
+            while (q < len && buf[q] >= '0' && buf[q] <= '9') {
+                q++;
+            }
+            return q > start && is(q, '.') ? spacechars(q + 1) : -1;
+        }
+
+        private int defListBullet(int p) {
+            int q = nonindentSpace(p);
+            return is(q, ':') || is(q, '~') ? spacechars(q + 1) : -1;
+        }
+
+        private boolean notItem(int p) {
+            return bullet(p) < 0 && enumerator(p) < 0 && blankLine(p) < 0 && horizontalRule(p) < 0
+                    && defListBullet(p) < 0;
+        }
+
+        private int underline(int p) {
+            if (p >= len || (buf[p] != '=' && buf[p] != '-')) {
+                return -1;
+            }
+            char c = buf[p];
+            int q = p;
+            while (q < len && buf[q] == c) {
+                q++;
+            }
+            return q - p >= 3 ? newline(q) : -1;
+        }
+
+        //// block level rules
+
+        private int block(int p, List<Node> out) {
+            if (p >= len) {
+                return -1;
+            }
+            int r;
+            if ((r = blockQuote(p, out)) >= 0
+                    || (r = verbatim(p, out)) >= 0
+                    || (r = reference(p, out)) >= 0
+                    || (r = horizontalRuleBlock(p, out)) >= 0
+                    || (r = atxHeading(p, out)) >= 0
+                    || (r = setextHeading(p, out)) >= 0
+                    || (r = list(p, ORDERED, out)) >= 0
+                    || (r = list(p, BULLET, out)) >= 0
+                    || (r = htmlBlock(p, out)) >= 0
+                    || (r = definitionList(p, out)) >= 0
+                    || (r = fencedCodeBlock(p, out)) >= 0) {
+                return r;
+            }
+            return paragraph(p, out);
+        }
+
+        private int blockQuote(int p, List<Node> out) {
+            int q = p;
+            while (is(q, '>')) {
+                int r = line(q);
+                if (r < 0) {
+                    break;
+                }
+                q = r;
+                while (q < len && buf[q] != '>' && blankLine(q) < 0 && (r = line(q)) >= 0) {
+                    q = r;
+                }
+                q = skipBlankLines(q);
+            }
+            if (q == p) {
+                return -1;
+            }
+            out.add(indexed(new BlockQuoteNode(new ArrayList<Node>()), p, q));
+            return q;
+        }
+
+        private int verbatim(int p, List<Node> out) {
+            StringBuilder text = null;
+            int q = p;
+            int end = -1;
+            while (true) {
+                int r = q;
+                int blanks = 0;
+                for (int b; (b = blankLine(r)) >= 0; r = b) {
+                    blanks++;
+                }
+                int s = indent(r);
+                if (s < 0 || s >= len || isNewline(buf[s])) {
+                    break;
+                }
+                int e = lineEnd(s);
+                int n = newline(e);
+                if (n < 0) {
+                    break;
+                }
+                if (text == null) {
+                    text = new StringBuilder(e - s + 1);
+                }
+                for (int i = 0; i < blanks; i++) {
+                    text.append('\n');
+                }
+                for (int i = s; i < e; i++) {
+                    if (buf[i] == '\t') {
+                        for (int j = 4 - (i - s) % 4; j > 0; j--) {
+                            text.append(' ');
+                        }
+                    } else {
+                        text.append(buf[i]);
+                    }
+                }
+                text.append('\n');
+                q = end = n;
+            }
+            if (end < 0) {
+                return -1;
+            }
+            out.add(indexed(new VerbatimNode(text.toString()), p, end));
+            return end;
+        }
+
+        private int reference(int p, List<Node> out) {
+            int q = label(nonindentSpace(p));
+            if (q < 0 || !is(q, ':')) {
+                return -1;
+            }
+            ReferenceNode reference = new ReferenceNode(produced);
+            q = spn1(q + 1);
+            int r = -1;
+            if (is(q, '<')) {
+                r = refSrcContent(q + 1);
+                if (r >= 0 && is(r, '>')) {
+                    reference.setUrl(slice(q + 1, r));
+                    r++;
+                } else {
+                    r = -1;
+                }
+            }
+            if (r < 0) {
+                r = refSrcContent(q);
+                if (r < 0) {
+                    return -1;
+                }
+                reference.setUrl(slice(q, r));
+            }
+            q = sp(r);
+            r = refTitle(q, reference);
+            q = sp(r < 0 ? q : r);
+            q = newline(q);
+            if (q < 0) {
+                return -1;
+            }
+            q = skipBlankLines(q);
+            out.add(indexed(reference, p, q));
+            return q;
+        }
+
+        private int refSrcContent(int p) {
+            int q = p;
+            while (q < len && buf[q] != '>' && !isSpacechar(buf[q]) && !isNewline(buf[q])) {
+                q++;
+            }
+            return q > p ? q : -1;
+        }
+
+        private int refTitle(int p, ReferenceNode reference) {
+            if (p >= len) {
+                return -1;
+            }
+            char open = buf[p];
+            char close;
+            switch (open) {
+                case '\'':
+                case '"':
+                    close = open;
+                    break;
+                case '(':
+                    close = ')';
+                    break;
+                default:
+                    return -1;
+            }
+            int q = p + 1;
+            while (q < len && !isNewline(buf[q]) && !(buf[q] == close && blankLine(q + 1) >= 0)) {
+                q++;
+            }
+            if (!is(q, close)) {
+                return -1;
+            }
+            reference.setTitle(slice(p + 1, q));
+            return q + 1;
+        }
+
+        private int horizontalRuleBlock(int p, List<Node> out) {
+            int r = horizontalRule(p);
+            if (r >= 0) {
+                out.add(indexed(new SimpleNode(SimpleNode.Type.HRule), p, r));
+            }
+            return r;
+        }
+
+        private int atxHeading(int p, List<Node> out) {
+            int level = 0;
+            while (level < 6 && is(p + level, '#')) {
+                level++;
+            }
+            if (level == 0) {
+                return -1;
+            }
+            HeaderNode header = new HeaderNode(level);
+            int start = sp(p + level);
+            int q = start;
+            while (q < len && !isNewline(buf[q]) && !atxClosing(q)) {
+                int r = inline(q, true);
+                if (r < 0) {
+                    break;
+                }
+                add(header.getChildren(), produced);
+                q = r;
+            }
+            if (q == start) {
+                return -1;
+            }
+            q = sp(q);
+            while (is(q, '#')) {
+                q++;
+            }
+            q = newline(sp(q));
+            if (q < 0) {
+                return -1;
+            }
+            out.add(indexed(header, p, q));
+            return q;
+        }
+
+        private boolean atxClosing(int p) {
+            int q = sp(p);
+            while (is(q, '#')) {
+                q++;
+            }
+            return newline(sp(q)) >= 0;
+        }
+
+        private int setextHeading(int p, List<Node> out) {
+            int e = lineEnd(p);
+            int u = newline(e);
+            if (e == p || u < 0 || underline(u) < 0) {
+                return -1;
+            }
+            List<Node> children = new ArrayList<Node>();
+            int q = p;
+            while (endline(q) < 0) {
+                int r = inline(q, true);
+                if (r < 0) {
+                    break;
+                }
+                add(children, produced);
+                q = r;
+            }
+            int r;
+            if (q == p || (q = newline(q)) < 0 || (r = underline(q)) < 0) {
+                return -1;
+            }
+            HeaderNode header = new HeaderNode(buf[q] == '=' ? 1 : 2);
+            header.getChildren().addAll(children);
+            out.add(indexed(header, p, r));
+            return r;
+        }
+
+        private int list(int p, int kind, List<Node> out) {
+            int r = listItem(p, kind, null);
+            if (r < 0) {
+                return -1;
+            }
+            SuperNode list = kind == BULLET ? new BulletListNode(produced) : new OrderedListNode(produced);
+            for (int s; (s = listItem(r, kind, list)) >= 0; r = s) {
+                list.getChildren().add(produced);
+            }
+            r = skipBlankLines(r);
+            out.add(indexed(list, p, r));
+            return r;
+        }
+
+        private int itemStart(int p, int kind) {
+            switch (kind) {
+                case BULLET:
+                    return bullet(p);
+                case ORDERED:
+                    return enumerator(p);
+                default:
+                    return defListBullet(p);
+            }
+        }
+
+        private int listItem(int p, int kind, SuperNode list) {
+            int q = p;
+            boolean tight = true;
+            int b = blankLine(q);
+            if (b >= 0) {
+                q = b;
+                tight = false;
+            }
+            int s = itemStart(q, kind);
+            if (s < 0 || (q = line(s)) < 0) {
+                return -1;
+            }
+            StringBuilder block = new StringBuilder();
+            block.append(buf, s, q - s);
+            while (q < len) {
+                int t = indent(q);
+                int c = t < 0 ? q : t;
+                int r;
+                if (!notItem(c) || (r = line(c)) < 0) {
+                    break;
+                }
+                block.append(buf, c, r - c);
+                q = r;
+            }
+            SuperNode item;
+            SuperNode tightFirstItem = null;
+            if (tight) {
+                item = tightFirstItem = createItem(kind, parseNested(block, false, s));
+            } else {
+                if (list != null) {
+                    fixFirstItem(list);
+                }
+                item = createItem(kind, parseNested(block, true, s));
+            }
+            while (true) {
+                int r = q;
+                boolean looseBlock = false;
+                b = blankLine(r);
+                if (b >= 0) {
+                    r = b;
+                    looseBlock = true;
+                }
+                int i = indent(r);
+                if (i < 0) {
+                    break;
+                }
+                block.setLength(0);
+                int end = doubleIndentedBlocks(i, block);
+                if (end < 0) {
+                    block.setLength(0);
+                    end = indentedBlock(i, block);
+                }
+                if (end < 0) {
+                    break;
+                }
+                if (looseBlock && tightFirstItem != null) {
+                    wrapFirstItemInPara(tightFirstItem);
+                }
+                item.getChildren().add(parseNested(block, looseBlock, i));
+                q = end;
+            }
+            produced = indexed(item, p, q);
+            return q;
+        }
+
+        private int doubleIndentedBlocks(int p, StringBuilder block) {
+            int j = indent(p);
+            int q;
+            if (j < 0 || blankLine(j) >= 0 || (q = line(j)) < 0) {
+                return -1;
+            }
+            block.append("    ").append(buf, j, q - j);
+            while (true) {
+                int r = skipBlankLines(q);
+                int i = indent(r);
+                int k = i < 0 ? -1 : indent(i);
+                int e = k < 0 ? -1 : line(k);
+                if (e < 0) {
+                    break;
+                }
+                block.append(buf, q, r - q).append("    ").append(buf, k, e - k);
+                q = e;
+            }
+            return q;
+        }
+
+        private int indentedBlock(int p, StringBuilder block) {
+            int q = line(p);
+            if (q < 0) {
+                return -1;
+            }
+            block.append(buf, p, q - p);
+            while (q < len) {
+                int c = blankLine(q) < 0 ? indent(q) : -1;
+                if (c < 0) {
+                    if (!notItem(q)) {
+                        break;
+                    }
+                    c = q;
+                }
+                int r = line(c);
+                if (r < 0) {
+                    break;
+                }
+                block.append(buf, c, r - c);
+                q = r;
+            }
+            return q;
+        }
+
+        private RootNode parseNested(StringBuilder block, boolean loose, int start) {
+            if (loose) {
+                block.append("\n\n");
+            }
+            char[] chars = new char[block.length()];
+            block.getChars(0, chars.length, chars, 0);
+            return new Level(chars, chars.length, offset + start, deadline).parseRoot();
+        }
+
+        private static SuperNode createItem(int kind, RootNode block) {
+            return kind == DEFINITION ? new DefinitionNode(block) : new ListItemNode(block);
+        }
+
+        private static void fixFirstItem(SuperNode list) {
+            List<Node> items = list.getChildren();
+            if (items.size() == 1 && items.get(0) instanceof ListItemNode) {
+                wrapFirstItemInPara((SuperNode) items.get(0));
+            }
+        }
+
+        private static void wrapFirstItemInPara(SuperNode item) {
+            Node first = item.getChildren().get(0);
+            ParaNode para = new ParaNode(first.getChildren());
+            para.setStartIndex(first.getStartIndex());
+            para.setEndIndex(first.getEndIndex());
+            item.getChildren().set(0, para);
+        }
+
+        private int htmlBlock(int p, List<Node> out) {
+            if (!is(p, '<')) {
+                return -1;
+            }
+            String[] tagName = new String[1];
+            int r = htmlTagBlock(p, tagName, null);
+            if (r < 0) {
+                r = htmlComment(p);
+            }
+            if (r < 0) {
+                r = htmlBlockSelfClosing(p);
+            }
+            if (r < 0 || blankLine(r) < 0) {
+                return -1;
+            }
+            String text = slice(p, r);
+            r = skipBlankLines(r);
+            out.add(indexed(new HtmlBlockNode(text), p, r));
+            return r;
+        }
+
+        private int htmlTagBlock(int p, String[] tagName, BitSet failed) {
+            int q = htmlBlockOpen(p, tagName);
+            if (q < 0) {
+                return -1;
+            }
+            while (q < len) {
+                int r = -1;
+                if (buf[q] == '<' && (failed == null || !failed.get(q))) {
+                    if (failed == null) {
+                        failed = new BitSet();
+                    }
+                    r = htmlTagBlock(q, tagName, failed);
+                    if (r < 0) {
+                        failed.set(q);
+                    }
+                }
+                if (r >= 0) {
+                    q = r;
+                } else if ((r = htmlBlockClose(q, tagName[0])) >= 0) {
+                    return r;
+                } else {
+                    q++;
+                }
+            }
+            return -1;
+        }
+
+        private int htmlBlockOpen(int p, String[] tagName) {
+            if (!is(p, '<')) {
+                return -1;
+            }
+            int q = definedHtmlTagName(spn1(p + 1), tagName);
+            if (q < 0) {
+                return -1;
+            }
+            q = htmlAttributes(spn1(q));
+            return is(q, '>') ? q + 1 : -1;
+        }
+
+        private int htmlBlockClose(int p, String tagName) {
+            if (!is(p, '<')) {
+                return -1;
+            }
+            int q = spn1(p + 1);
+            if (!is(q, '/')) {
+                return -1;
+            }
+            int start = ++q;
+            while (q < len && isAlphanumeric(buf[q])) {
+                q++;
+            }
+            if (q == start || !slice(start, q).equals(tagName)) {
+                return -1;
+            }
+            q = spn1(q);
+            return is(q, '>') ? q + 1 : -1;
+        }
+
+        private int htmlBlockSelfClosing(int p) {
+            int q = definedHtmlTagName(spn1(p + 1), new String[1]);
+            if (q < 0) {
+                return -1;
+            }
+            q = htmlAttributes(spn1(q));
+            if (is(q, '/')) {
+                q++;
+            }
+            q = spn1(q);
+            return is(q, '>') ? q + 1 : -1;
+        }
+
+        private int definedHtmlTagName(int p, String[] tagName) {
+            int q = p;
+            while (q < len && isAlphanumeric(buf[q])) {
+                q++;
+            }
+            if (q == p) {
+                return -1;
+            }
+            String name = slice(p, q);
+            if (tagName[0] != null) {
+                return name.equals(tagName[0]) ? q : -1;
+            }
+            name = name.toLowerCase();
+            if (Arrays.binarySearch(HTML_TAGS, name) < 0) {
+                return -1;
+            }
+            tagName[0] = name;
+            return q;
+        }
+
+        private int htmlAttributes(int p) {
+            while (true) {
+                int q = p;
+                while (q < len && (isAlphanumeric(buf[q]) || buf[q] == '-' || buf[q] == '_')) {
+                    q++;
+                }
+                if (q == p) {
+                    return p;
+                }
+                q = spn1(q);
+                if (is(q, '=')) {
+                    int v = spn1(q + 1);
+                    int r = quoted(v);
+                    if (r < 0) {
+                        r = v;
+                        while (r < len && buf[r] != '>' && !isSpacechar(buf[r]) && !isNewline(buf[r])) {
+                            r++;
+                        }
+                        if (r == v) {
+                            r = -1;
+                        }
+                    }
+                    if (r >= 0) {
+                        q = r;
+                    }
+                }
+                p = spn1(q);
+            }
+        }
+
+        private int quoted(int p) {
+            if (is(p, '"') || is(p, '\'')) {
+                char quote = buf[p];
+                for (int q = p + 1; q < len; q++) {
+                    if (buf[q] == quote) {
+                        return q + 1;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        private int htmlComment(int p) {
+            if (p + 4 > len || buf[p] != '<' || buf[p + 1] != '!' || buf[p + 2] != '-' || buf[p + 3] != '-') {
+                return -1;
+            }
+            for (int q = p + 4; q + 3 <= len; q++) {
+                if (buf[q] == '-' && buf[q + 1] == '-' && buf[q + 2] == '>') {
+                    return q + 3;
+                }
+            }
+            return -1;
+        }
+
+        private int definitionList(int p, List<Node> out) {
+            if (p >= len || isSpacechar(buf[p])) {
+                return -1;
+            }
+            int q = p;
+            while (q < len && blankLine(q) < 0 && defListBullet(q) < 0) {
+                q = line(q);
+                if (q < 0) {
+                    return -1;
+                }
+            }
+            if (q == p) {
+                return -1;
+            }
+            int b = blankLine(q);
+            if (defListBullet(b < 0 ? q : b) < 0) {
+                return -1;
+            }
+            DefinitionListNode list = new DefinitionListNode();
+            q = p;
+            while (true) {
+                SuperNode group = new SuperNode();
+                int r = q;
+                for (int t; (t = defListTerm(r, group.getChildren())) >= 0; r = t) {
+                    // consume all the terms
+                }
+                if (r == q) {
+                    break;
+                }
+                int terms = group.getChildren().size();
+                for (int d; (d = listItem(r, DEFINITION, group)) >= 0; r = d) {
+                    group.getChildren().add(produced);
+                }
+                if (group.getChildren().size() == terms) {
+                    break;
+                }
+                list.getChildren().addAll(group.getChildren());
+                b = blankLine(r);
+                q = b < 0 ? r : b;
+            }
+            if (q == p) {
+                return -1;
+            }
+            out.add(indexed(list, p, q));
+            return q;
+        }
+
+        private int defListTerm(int p, List<Node> out) {
+            if (p >= len || isSpacechar(buf[p]) || defListBullet(p) >= 0) {
+                return -1;
+            }
+            DefinitionTermNode term = new DefinitionTermNode();
+            int q = p;
+            while (q < len && !isNewline(buf[q]) && !(buf[q] == ':' && newline(q + 1) >= 0)) {
+                int r = inline(q, true);
+                if (r < 0) {
+                    break;
+                }
+                add(term.getChildren(), produced);
+                q = r;
+            }
+            if (q == p) {
+                return -1;
+            }
+            if (is(q, ':')) {
+                q++;
+            }
+            q = newline(q);
+            if (q < 0) {
+                return -1;
+            }
+            out.add(indexed(term, p, q));
+            return q;
+        }
+
+        private int fencedCodeBlock(int p, List<Node> out) {
+            int markerLength = codeFenceLength(p);
+            int q = codeFence(p, markerLength);
+            if (q < 0 || codeFence(q, markerLength) >= 0) {
+                return -1;
+            }
+            String info = slice(sp(p + markerLength), lineEnd(p));
+            StringBuilder text = new StringBuilder();
+            for (int b; (b = blankLine(q)) >= 0; q = b) {
+                text.append('\n');
+            }
+            int start = q;
+            while (q < len) {
+                int n = newline(q);
+                if (n >= 0 && codeFence(n, markerLength) >= 0) {
+                    break;
+                }
+                q++;
+            }
+            if (q == start || q >= len) {
+                return -1;
+            }
+            text.append(buf, start, q - start).append('\n');
+            int end = codeFence(newline(q), markerLength);
+            out.add(indexed(new VerbatimNode(text.toString(), info), p, end));
+            return end;
+        }
+
+        private int codeFenceLength(int p) {
+            if (p >= len || (buf[p] != '~' && buf[p] != '`')) {
+                return -1;
+            }
+            int q = p;
+            while (q < len && buf[q] == buf[p]) {
+                q++;
+            }
+            return q - p >= 3 ? q - p : -1;
+        }
+
+        private int codeFence(int p, int markerLength) {
+            if (markerLength < 0 || codeFenceLength(p) != markerLength) {
+                return -1;
+            }
+            return line(p + markerLength);
+        }
+
+        private int paragraph(int p, List<Node> out) {
+            int q = nonindentSpace(p);
+            SuperNode inlines = new SuperNode();
+            int r = inlines(q, inlines.getChildren());
+            if (r >= 0 && blankLine(r) >= 0) {
+                r = skipBlankLines(r);
+                out.add(indexed(new ParaNode(indexed(inlines, q, r)), p, r));
+                return r;
+            }
+            if (q != p || r < 0) {
+                // not a paragraph so just the inlines, which keep any leading space
+                inlines = new SuperNode();
+                r = inlines(p, inlines.getChildren());
+                if (r < 0) {
+                    return -1;
+                }
+            }
+            out.add(indexed(inlines, p, r));
+            return r;
+        }
+
+        //// inline rules
+
+        private int inlines(int p, List<Node> out) {
+            int q = p;
+            while (true) {
+                int e = endline(q);
+                if (e < 0) {
+                    int r = inline(q, true);
+                    if (r < 0) {
+                        break;
+                    }
+                    add(out, produced);
+                    q = r;
+                } else if (e < len) {
+                    // an intermediate line break is only kept when more inline content follows it
+                    q = e;
+                } else {
+                    break;
+                }
+            }
+            if (q == p) {
+                return -1;
+            }
+            int e = endline(q);
+            return e < 0 ? q : e;
+        }
+
+        private int endline(int p) {
+            int q = newline(sp(p));
+            if (q < 0 || q == len) {
+                return q;
+            }
+            if (blankLine(q) >= 0 || buf[q] == '>' || buf[q] == '#') {
+                return -1;
+            }
+            int n = line(q);
+            return n >= 0 && underline(n) >= 0 ? -1 : q;
+        }
+
+        private int inline(int p, boolean autoLinks) {
+            if (p >= len) {
+                return -1;
+            }
+            int r = link(p, autoLinks);
+            return r >= 0 ? r : nonLinkInline(p);
+        }
+
+        private int link(int p, boolean autoLinks) {
+            char c = buf[p];
+            if (c == '[') {
+                int r = label(p);
+                if (r >= 0) {
+                    return linkTail(r, produced, false);
+                }
+            }
+            return autoLinks && (c == '<' || isAlphanumeric(c) || c == '-' || c == '+' || c == '_' || c == '.')
+                    ? autoLink(p)
+                    : -1;
+        }
+
+        private int nonLinkInline(int p) {
+            char c = buf[p];
+            int r;
+            if (isNormalChar(c)) {
+                r = p + 1;
+                while (r < len && isNormalChar(buf[r])) {
+                    r++;
+                }
+                produced = new TextNode(slice(p, r));
+                return r;
+            }
+            if ((r = endline(p)) >= 0) {
+                produced = null;
+                return r;
+            }
+            if ((r = charLine(p, '_')) >= 0 || (r = charLine(p, '*')) >= 0) {
+                produced = new TextNode(slice(p, r));
+                return r;
+            }
+            if (isSpacechar(c)) {
+                produced = new TextNode(" ");
+                return sp(p);
+            }
+            if ((c == '*' || c == '_') && (r = strongOrEmph(p)) >= 0) {
+                return r;
+            }
+            if (c == '!' && (r = label(p + 1)) >= 0) {
+                return linkTail(r, produced, true);
+            }
+            if (c == '`' && (r = code(p)) >= 0) {
+                return r;
+            }
+            if (c == '<' && ((r = htmlComment(p)) >= 0 || (r = htmlTag(p)) >= 0)) {
+                produced = new InlineHtmlNode(slice(p, r));
+                return r;
+            }
+            if (c == '&' && (r = entity(p)) >= 0) {
+                produced = new TextNode(slice(p, r));
+                return r;
+            }
+            if (c == '\\' && p + 1 < len && isEscapable(buf[p + 1])) {
+                produced = new SpecialTextNode(slice(p + 1, p + 2));
+                return p + 2;
+            }
+            if (isSpecialChar(c)) {
+                produced = new SpecialTextNode(slice(p, p + 1));
+                return p + 1;
+            }
+            return -1;
+        }
+
+        private int charLine(int p, char c) {
+            int q = p;
+            while (q < len && buf[q] == c) {
+                q++;
+            }
+            if (q - p >= 4) {
+                return q;
+            }
+            if (q == p && p + 1 < len && isSpacechar(buf[p]) && buf[p + 1] == c) {
+                q = p + 1;
+                while (q < len && buf[q] == c) {
+                    q++;
+                }
+                return q < len && isSpacechar(buf[q]) ? q : -1;
+            }
+            return -1;
+        }
+
+        private boolean mismatched(int p, int rule) {
+            return mismatches != null && mismatches.get(p * 5 + rule);
+        }
+
+        private void mismatch(int p, int rule) {
+            if (mismatches == null) {
+                mismatches = new BitSet();
+            }
+            mismatches.set(p * 5 + rule);
+        }
+
+        private int strongOrEmph(int p) {
+            int r = emphOrStrong(p, 2);
+            if (r >= 0) {
+                produced = new StrongNode(((SuperNode) produced).getChildren());
+                return r;
+            }
+            r = emphOrStrong(p, 1);
+            if (r >= 0) {
+                produced = new EmphNode(((SuperNode) produced).getChildren());
+            }
+            return r;
+        }
+
+        private int emphOrStrong(int p, int n) {
+            char c = buf[p];
+            int rule = (c == '_' ? 2 : 0) + n - 1;
+            if (charLine(p, c) >= 0 || mismatched(p, rule)) {
+                return -1;
+            }
+            int q = p + n;
+            if (q > len || (n == 2 && buf[p + 1] != c)
+                    || (q < len && (isSpacechar(buf[q]) || isNewline(buf[q])))) {
+                return -1;
+            }
+            SuperNode node = new SuperNode();
+            int start = q;
+            while (emphOrStrongClose(q, c, n) < 0) {
+                int r = inline(q, true);
+                if (r < 0) {
+                    break;
+                }
+                add(node.getChildren(), produced);
+                q = r;
+            }
+            int r = q == start ? -1 : emphOrStrongClose(q, c, n);
+            if (r < 0) {
+                mismatch(p, rule);
+                return -1;
+            }
+            produced = node;
+            return r;
+        }
+
+        private int emphOrStrongClose(int p, char c, int n) {
+            if (p + n > len) {
+                return -1;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf[p + i] != c) {
+                    return -1;
+                }
+            }
+            return p + n < len && isAlphanumeric(buf[p + n]) ? -1 : p + n;
+        }
+
+        private int label(int p) {
+            if (!is(p, '[') || mismatched(p, 4)) {
+                return -1;
+            }
+            SuperNode node = new SuperNode();
+            int q = p + 1;
+            while (q < len && buf[q] != ']') {
+                int r = inline(q, false);
+                if (r < 0) {
+                    break;
+                }
+                add(node.getChildren(), produced);
+                q = r;
+            }
+            if (q == p + 1 || !is(q, ']')) {
+                mismatch(p, 4);
+                return -1;
+            }
+            produced = node;
+            return q + 1;
+        }
+
+        private int linkTail(int p, Node label, boolean image) {
+            int r = explicitLink(p, label, image);
+            return r >= 0 ? r : referenceLink(p, label, image);
+        }
+
+        private int explicitLink(int p, Node label, boolean image) {
+            int q = spn1(p);
+            if (!is(q, '(')) {
+                return -1;
+            }
+            q = sp(q + 1);
+            int s = linkSource(q, 0);
+            String url = slice(q, s);
+            q = spn1(s);
+            String title = "";
+            int t = linkTitle(q);
+            if (t >= 0) {
+                title = slice(q + 1, t - 1);
+                q = t;
+            }
+            q = sp(q);
+            if (!is(q, ')')) {
+                return -1;
+            }
+            produced = image ? new ExpImageNode(title, url, label) : new ExpLinkNode(title, url, label);
+            return q + 1;
+        }
+
+        private int referenceLink(int p, Node label, boolean image) {
+            int q = spn1(p);
+            SuperNode key = null;
+            String separator = null;
+            int end = p;
+            int r = label(q);
+            if (r >= 0) {
+                key = (SuperNode) produced;
+                separator = slice(p, q);
+                end = r;
+            } else if (is(q, '[') && is(q + 1, ']')) {
+                separator = slice(p, q);
+                end = q + 2;
+            }
+            produced = image ? new RefImageNode(key, separator, label) : new RefLinkNode(key, separator, label);
+            return end;
+        }
+
+        private int linkSource(int p, int depth) {
+            if (depth < MAX_LINK_SOURCE_DEPTH) {
+                if (is(p, '(')) {
+                    int r = linkSource(p + 1, depth + 1);
+                    if (is(r, ')')) {
+                        return r + 1;
+                    }
+                }
+                if (is(p, '<')) {
+                    int r = linkSource(p + 1, depth + 1);
+                    if (is(r, '>')) {
+                        return r + 1;
+                    }
+                }
+            }
+            int q = p;
+            while (q < len) {
+                char c = buf[q];
+                if (c == '\\' && (is(q + 1, '(') || is(q + 1, ')'))) {
+                    q += 2;
+                } else if (c != '(' && c != ')' && c != '>' && !isSpacechar(c) && !isNewline(c)) {
+                    q++;
+                } else {
+                    break;
+                }
+            }
+            return q;
+        }
+
+        private int linkTitle(int p) {
+            if (!is(p, '\'') && !is(p, '"')) {
+                return -1;
+            }
+            char delimiter = buf[p];
+            int q = p + 1;
+            while (q < len && !isNewline(buf[q])) {
+                if (buf[q] == delimiter) {
+                    int s = sp(q + 1);
+                    if (is(s, ')') || newline(s) >= 0) {
+                        break;
+                    }
+                }
+                q++;
+            }
+            return is(q, delimiter) ? q + 1 : -1;
+        }
+
+        private int autoLink(int p) {
+            int q = is(p, '<') ? p + 1 : p;
+            boolean mail = false;
+            int r = autoLinkUrl(q);
+            if (r < 0) {
+                r = autoLinkEmail(q);
+                mail = true;
+            }
+            if (r < 0) {
+                return -1;
+            }
+            produced = mail ? new MailLinkNode(slice(q, r)) : new AutoLinkNode(slice(q, r));
+            return is(r, '>') ? r + 1 : r;
+        }
+
+        private int autoLinkUrl(int p) {
+            int q = p;
+            while (q < len && isLetter(buf[q])) {
+                q++;
+            }
+            if (q == p || !is(q, ':') || !is(q + 1, '/') || !is(q + 2, '/')) {
+                return -1;
+            }
+            return autoLinkEnd(q + 3);
+        }
+
+        private int autoLinkEmail(int p) {
+            int q = p;
+            while (q < len && (isAlphanumeric(buf[q]) || "-+_.".indexOf(buf[q]) >= 0)) {
+                q++;
+            }
+            return q > p && is(q, '@') ? autoLinkEnd(q + 1) : -1;
+        }
+
+        private int autoLinkEnd(int p) {
+            int q = p;
+            while (q < len) {
+                char c = buf[q];
+                if (isNewline(c) || isSpacechar(c) || c == '>') {
+                    break;
+                }
+                if (".,;:)}]\"'".indexOf(c) >= 0 && q + 1 < len
+                        && (isSpacechar(buf[q + 1]) || isNewline(buf[q + 1]))) {
+                    break;
+                }
+                q++;
+            }
+            return q > p ? q : -1;
+        }
+
+        private int code(int p) {
+            int n = 0;
+            while (is(p + n, '`')) {
+                n++;
+            }
+            if (n > 5) {
+                return -1;
+            }
+            int start = sp(p + n);
+            int q = start;
+            while (q < len) {
+                char c = buf[q];
+                if (c == '`') {
+                    int m = 0;
+                    while (is(q + m, '`')) {
+                        m++;
+                    }
+                    if (m == n) {
+                        break;
+                    }
+                    q += m;
+                } else if (!isSpacechar(c) && !isNewline(c)) {
+                    q++;
+                } else if (ticks(sp(q), n)) {
+                    break;
+                } else if (isSpacechar(c)) {
+                    q++;
+                } else {
+                    int r = newline(q);
+                    if (blankLine(r) >= 0) {
+                        break;
+                    }
+                    q = r;
+                }
+            }
+            if (q == start) {
+                return -1;
+            }
+            int e = sp(q);
+            if (!ticks(e, n)) {
+                return -1;
+            }
+            produced = new CodeNode(slice(start, q));
+            return e + n;
+        }
+
+        private boolean ticks(int p, int n) {
+            for (int i = 0; i < n; i++) {
+                if (!is(p + i, '`')) {
+                    return false;
+                }
+            }
+            return !is(p + n, '`');
+        }
+
+        private int htmlTag(int p) {
+            int q = spn1(p + 1);
+            if (is(q, '/')) {
+                q++;
+            }
+            int start = q;
+            while (q < len && isAlphanumeric(buf[q])) {
+                q++;
+            }
+            if (q == start) {
+                return -1;
+            }
+            q = htmlAttributes(spn1(q));
+            if (is(q, '/')) {
+                q++;
+            }
+            q = spn1(q);
+            return is(q, '>') ? q + 1 : -1;
+        }
+
+        private int entity(int p) {
+            int q = p + 1;
+            int start;
+            if (is(q, '#') && (is(q + 1, 'x') || is(q + 1, 'X'))) {
+                start = q += 2;
+                while (q < len && (Character.digit(buf[q], 16) >= 0 && buf[q] < 128)) {
+                    q++;
+                }
+            } else if (is(q, '#')) {
+                start = ++q;
+                while (q < len && buf[q] >= '0' && buf[q] <= '9') {
+                    q++;
+                }
+            } else {
+                start = q;
+                while (q < len && isAlphanumeric(buf[q])) {
+                    q++;
+                }
+            }
+            return q > start && is(q, ';') ? q + 1 : -1;
+        }
+    }
+}
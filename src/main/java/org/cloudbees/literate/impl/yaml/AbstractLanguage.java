@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl.yaml;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.cloudbees.literate.api.v1.vfs.CachedRootRepository;
+import org.cloudbees.literate.api.v1.vfs.ProjectRepository;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link Language} whose convention is a default {@code build} section inferred from the files at the root of the
+ * project. The root is inspected through a {@link CachedRootRepository}, so that however many files a language looks
+ * for, and however many languages look, the root is only listed once per request. Nothing is inspected when the
+ * model already has a {@code build} section.
+ *
+ * @since 0.7
+ */
+public abstract class AbstractLanguage implements Language {
+
+    /**
+     * The key of the section that the default build commands go in.
+     */
+    private static final String BUILD = "build";
+
+    /**
+     * {@inheritDoc}
+     */
+    //@Override
+    public Map<String, Object> decorate(Map<String, Object> model, ProjectRepository repository) throws IOException {
+        if (model.containsKey(BUILD)) {
+            return model;
+        }
+        Map<String, Object> output = new HashMap<String, Object>();
+        output.put(BUILD, defaultBuild(CachedRootRepository.of(repository)));
+        output.putAll(model);
+        return output;
+    }
+
+    /**
+     * Returns the build commands to use when the model does not specify any.
+     *
+     * @param root the project, probe it with {@link CachedRootRepository#hasRootFile(String)}.
+     * @return the default build commands.
+     * @throws IOException if the project could not be inspected.
+     */
+    @NonNull
+    protected abstract List<String> defaultBuild(@NonNull CachedRootRepository root) throws IOException;
+}
@@ -23,36 +23,35 @@
  */
 package org.cloudbees.literate.impl.yaml;
 
-import org.cloudbees.literate.api.v1.vfs.ProjectRepository;
+import org.cloudbees.literate.api.v1.vfs.CachedRootRepository;
 
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
 /**
  * @author stephenc
  * @since 17/05/2013 13:29
  */
-public class JavaLanguage implements Language {
+public class JavaLanguage extends AbstractLanguage {
     // @Override
     public Set<String> supported() {
         return Collections.singleton("java");
     }
 
-    // @Override
-    public Map<String, Object> decorate(Map<String, Object> model, ProjectRepository repository) throws IOException {
-        Map<String, Object> output = new HashMap<String, Object>();
-        if (repository.isFile("build.gradle")) {
-            output.put("build", Arrays.asList("gradle assemble", "gradle check"));
-        } else if (repository.isFile("pom.xml")) {
-            output.put("build", Arrays.asList("mvn test"));
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected List<String> defaultBuild(CachedRootRepository root) throws IOException {
+        if (root.hasRootFile("build.gradle")) {
+            return Arrays.asList("gradle assemble", "gradle check");
+        } else if (root.hasRootFile("pom.xml")) {
+            return Arrays.asList("mvn test");
         } else {
-            output.put("build", Collections.singletonList("ant test"));
+            return Collections.singletonList("ant test");
         }
-        output.putAll(model);
-        return output;
     }
 }
@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl.yaml;
+
+import org.cloudbees.literate.api.v1.vfs.CachedRootRepository;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Node.js projects, which are built with {@code npm} when they have a {@code package.json} and with
+ * {@code make} otherwise.
+ *
+ * @since 0.7
+ */
+public class NodeLanguage extends AbstractLanguage {
+    // @Override
+    public Set<String> supported() {
+        return new HashSet<String>(Arrays.asList("node_js", "node"));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected List<String> defaultBuild(CachedRootRepository root) throws IOException {
+        if (root.hasRootFile("package.json")) {
+            return Arrays.asList("npm install", "npm test");
+        } else {
+            return Collections.singletonList("make test");
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl.yaml;
+
+import org.cloudbees.literate.api.v1.vfs.CachedRootRepository;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Python projects, which install their {@code requirements.txt} if they have one and then run the tests of
+ * their {@code setup.py}, or discover their unit tests when they have no {@code setup.py}.
+ *
+ * @since 0.7
+ */
+public class PythonLanguage extends AbstractLanguage {
+    // @Override
+    public Set<String> supported() {
+        return Collections.singleton("python");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected List<String> defaultBuild(CachedRootRepository root) throws IOException {
+        List<String> build = new ArrayList<String>();
+        if (root.hasRootFile("requirements.txt")) {
+            build.add("pip install -r requirements.txt");
+        }
+        if (root.hasRootFile("setup.py")) {
+            build.add("python setup.py test");
+        } else {
+            build.add("python -m unittest discover");
+        }
+        return build;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl.yaml;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.ThreadSafe;
+import org.cloudbees.literate.impl.yaml.environment.EnvironmentDecorator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * The {@link Language} and {@link EnvironmentDecorator} implementations available from a class loader. The
+ * providers are discovered once for the class loader of this library, and once per other class loader for as long as
+ * its extensions are in use, and then looked up by language name and by section name.
+ *
+ * @since 0.7
+ */
+@ThreadSafe
+public final class YamlExtensions {
+
+    /**
+     * The number of distinct section names whose decorators we remember, section names come from the YAML files.
+     */
+    private static final int MAX_SECTIONS = 64;
+
+    /**
+     * The extensions of each class loader other than that of this library. The extensions hold providers loaded from
+     * their class loader, and so reach it strongly, so both the class loaders and the extensions are held weakly: an
+     * entry lasts as long as someone is using the extensions and otherwise only until the next garbage collection,
+     * after which the providers are discovered again. This never pins a foreign class loader, such as that of a
+     * reloaded plugin, in memory.
+     */
+    private static final LoadingCache<ClassLoader, YamlExtensions> EXTENSIONS = CacheBuilder.newBuilder()
+            .weakKeys()
+            .weakValues()
+            .build(new CacheLoader<ClassLoader, YamlExtensions>() {
+                @Override
+                public YamlExtensions load(ClassLoader classLoader) {
+                    return new YamlExtensions(classLoader);
+                }
+            });
+
+    /**
+     * The languages keyed by the names they support, the first provider to support a name wins.
+     */
+    private final Map<String, Language> languages;
+
+    /**
+     * All the decorators in service loader order.
+     */
+    private final List<EnvironmentDecorator> decorators;
+
+    /**
+     * The decorators that accept each section name, in service loader order.
+     */
+    private final LoadingCache<String, List<EnvironmentDecorator>> sections;
+
+    /**
+     * Holds the extensions of the class loader of this library, which is the one that the builders use. That class
+     * loader lives as long as this class, so holding its extensions strongly pins nothing and they are discovered only
+     * once, when first used.
+     */
+    private static final class Library {
+        /**
+         * The extensions of the class loader of this library.
+         */
+        static final YamlExtensions EXTENSIONS = new YamlExtensions(YamlExtensions.class.getClassLoader());
+    }
+
+    private YamlExtensions(ClassLoader classLoader) {
+        Map<String, Language> languages = new HashMap<String, Language>();
+        for (Language language : ServiceLoader.load(Language.class, classLoader)) {
+            for (String name : language.supported()) {
+                if (!languages.containsKey(name)) {
+                    languages.put(name, language);
+                }
+            }
+        }
+        this.languages = languages;
+        List<EnvironmentDecorator> decorators = new ArrayList<EnvironmentDecorator>();
+        for (EnvironmentDecorator decorator : ServiceLoader.load(EnvironmentDecorator.class, classLoader)) {
+            decorators.add(decorator);
+        }
+        this.decorators = decorators;
+        this.sections = CacheBuilder.newBuilder()
+                .maximumSize(MAX_SECTIONS)
+                .build(new CacheLoader<String, List<EnvironmentDecorator>>() {
+                    @Override
+                    public List<EnvironmentDecorator> load(String sectionName) {
+                        return accepting(sectionName);
+                    }
+                });
+    }
+
+    /**
+     * Returns the extensions available from the supplied class loader.
+     *
+     * @param classLoader the class loader.
+     * @return the extensions available from the supplied class loader.
+     */
+    @NonNull
+    public static YamlExtensions of(@NonNull ClassLoader classLoader) {
+        if (classLoader == YamlExtensions.class.getClassLoader()) {
+            return Library.EXTENSIONS;
+        }
+        return EXTENSIONS.getUnchecked(classLoader);
+    }
+
+    /**
+     * Returns the language that supports the supplied name.
+     *
+     * @param name the language name.
+     * @return the language or {@code null} if no language supports the name.
+     */
+    @CheckForNull
+    public Language getLanguage(@CheckForNull String name) {
+        return name == null ? null : languages.get(name);
+    }
+
+    /**
+     * Returns the decorators that accept the supplied section name.
+     *
+     * @param sectionName the section name.
+     * @return the decorators that accept the section, in service loader order.
+     */
+    @NonNull
+    public List<EnvironmentDecorator> getDecorators(@NonNull String sectionName) {
+        return sections.getUnchecked(sectionName);
+    }
+
+    private List<EnvironmentDecorator> accepting(String sectionName) {
+        List<EnvironmentDecorator> result = new ArrayList<EnvironmentDecorator>();
+        for (EnvironmentDecorator decorator : decorators) {
+            if (decorator.acceptSection(sectionName)) {
+                result.add(decorator);
+            }
+        }
+        return result.isEmpty()
+                ? Collections.<EnvironmentDecorator>emptyList()
+                : Collections.unmodifiableList(result);
+    }
+}
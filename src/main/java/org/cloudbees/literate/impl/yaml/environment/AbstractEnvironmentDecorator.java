@@ -1,6 +1,11 @@
 package org.cloudbees.literate.impl.yaml.environment;
 
-import java.util.HashMap;
+import org.cloudbees.literate.api.v1.EnvironmentAssignments;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public abstract class AbstractEnvironmentDecorator {
@@ -10,19 +15,30 @@ public abstract class AbstractEnvironmentDecorator {
     }
 
     /**
-     * Parses a string that looks like KEY=VALUE KEY2=VALUE into a proper map
+     * Parses a string that looks like KEY=VALUE KEY2="VALUE 2" into a proper map
      * 
      * @param s
      *            the input string
      * @return a map containing the properties in structured mode
+     * @see EnvironmentAssignments
      */
     protected Map<String, String> parseProperties(String s) {
-        Map<String, String> result = new HashMap<String, String>();
-        String[] split = s.split(" ");
-        for (String string : split) {
-            String[] split2 = string.split("=", 2);
-            assert split2.length == 2 : "Properties must have format KEY=VALUE";
-            result.put(split2[0], split2[1]);
+        return EnvironmentAssignments.parse(s);
+    }
+
+    /**
+     * Parses each of the variables of a section, so that a {@link BatchEnvironmentDecorator} can apply them to
+     * many environments.
+     *
+     * @param variables
+     *            the variables of the section, each looking like KEY=VALUE KEY2=VALUE
+     * @return one map of the properties of each variable, in order
+     * @since 0.7
+     */
+    public static List<Map<String, String>> parseAssignments(Collection<String> variables) {
+        List<Map<String, String>> result = new ArrayList<Map<String, String>>(variables.size());
+        for (String variable : variables) {
+            result.add(Collections.unmodifiableMap(EnvironmentAssignments.parse(variable)));
         }
         return result;
     }
@@ -0,0 +1,28 @@
+package org.cloudbees.literate.impl.yaml.environment;
+
+import java.util.List;
+import java.util.Map;
+
+import org.cloudbees.literate.api.v1.ExecutionEnvironment;
+
+/**
+ * An {@link EnvironmentDecorator} that decorates many environments in one call, with the variables of the section
+ * parsed once by {@link AbstractEnvironmentDecorator#parseAssignments(java.util.Collection)} rather than once for
+ * every environment.
+ *
+ * @since 0.7
+ */
+public interface BatchEnvironmentDecorator extends EnvironmentDecorator {
+    /**
+     * Decorate each of the given environments with the parsed variables of the accepted section, leaving out the
+     * combinations that match any of the exclusions.
+     *
+     * @param environments The environments to decorate
+     * @param assignments The variables of the accepted section, one map of KEY=VALUE assignments per entry
+     * @param exclusions The combinations to leave out, only those that no later section can change the outcome of
+     * @return the decorated environments, those of the first environment first
+     */
+    public List<ExecutionEnvironment> decorate(List<ExecutionEnvironment> environments,
+                                               List<Map<String, String>> assignments,
+                                               List<EnvironmentRule> exclusions);
+}
@@ -0,0 +1,294 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl.yaml.environment;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.Immutable;
+import org.cloudbees.literate.api.v1.ExecutionEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A lazy expansion of a list of environments through a chain of {@link EnvironmentDecorator}s. Nothing is decorated
+ * until the expansion is iterated and each iteration only holds the environments of one decoration per stage, so
+ * counting or paging through a large matrix does not materialize the whole product. Exclusions apply to the fully
+ * decorated environments, but a combination is dropped as early as the stage where it first matches an exclusion
+ * whose variables no later stage can assign, and the {@link MatrixEnvironmentDecorator} does not even create it.
+ * {@link BatchEnvironmentDecorator}s get the variables of their section parsed once and are handed the environments
+ * in batches of up to {@link #BATCH_SIZE}.
+ *
+ * @since 0.7
+ */
+@Immutable
+public final class EnvironmentExpansion implements Iterable<ExecutionEnvironment> {
+
+    /**
+     * The number of environments handed to a {@link BatchEnvironmentDecorator} at once, which bounds how much of the
+     * expansion a stage holds.
+     */
+    static final int BATCH_SIZE = 64;
+
+    /**
+     * The expansion being decorated, or {@code null} for the base expansion.
+     */
+    private final EnvironmentExpansion parent;
+
+    /**
+     * The environments of the base expansion, or {@code null} for a decorated expansion.
+     */
+    private final List<ExecutionEnvironment> environments;
+
+    /**
+     * The decorator applied to each environment of the parent.
+     */
+    private final EnvironmentDecorator decorator;
+
+    /**
+     * The variables passed to the decorator.
+     */
+    private final Collection<String> variables;
+
+    /**
+     * The variables parsed once for a {@link BatchEnvironmentDecorator}, or {@code null} for other decorators.
+     */
+    private final List<Map<String, String>> assignments;
+
+    /**
+     * The combinations to leave out.
+     */
+    private final List<EnvironmentRule> exclusions;
+
+    /**
+     * The names of the variables that the decorator may assign, or {@code null} if they are not known.
+     */
+    private final Set<String> assigned;
+
+    /**
+     * The number of environments we expect this expansion to yield.
+     */
+    private final long expectedSize;
+
+    /**
+     * Creates the base expansion of the supplied environments.
+     *
+     * @param environments the environments to expand.
+     */
+    public EnvironmentExpansion(@NonNull List<ExecutionEnvironment> environments) {
+        this(environments, Collections.<EnvironmentRule>emptyList());
+    }
+
+    /**
+     * Creates the base expansion of the supplied environments, leaving out the combinations that match any of the
+     * exclusions.
+     *
+     * @param environments the environments to expand.
+     * @param exclusions   the combinations to leave out.
+     */
+    public EnvironmentExpansion(@NonNull List<ExecutionEnvironment> environments,
+                                @NonNull List<EnvironmentRule> exclusions) {
+        this.parent = null;
+        this.exclusions = Collections.unmodifiableList(new ArrayList<EnvironmentRule>(exclusions));
+        this.environments = Collections.unmodifiableList(new ArrayList<ExecutionEnvironment>(environments));
+        this.decorator = null;
+        this.variables = null;
+        this.assignments = null;
+        this.assigned = Collections.emptySet();
+        this.expectedSize = this.environments.size();
+    }
+
+    private EnvironmentExpansion(EnvironmentExpansion parent, EnvironmentDecorator decorator,
+                                 Collection<String> variables) {
+        this.parent = parent;
+        this.exclusions = parent.exclusions;
+        this.environments = null;
+        this.decorator = decorator;
+        this.variables = variables;
+        this.assignments = decorator instanceof BatchEnvironmentDecorator
+                ? AbstractEnvironmentDecorator.parseAssignments(variables)
+                : null;
+        if (assignments == null) {
+            // other decorators may assign anything
+            this.assigned = null;
+        } else {
+            Set<String> assigned = new HashSet<String>();
+            for (Map<String, String> assignment : assignments) {
+                assigned.addAll(assignment.keySet());
+            }
+            this.assigned = assigned;
+        }
+        // decorators do not report their fan out, so measure it on an empty environment
+        this.expectedSize = multiply(parent.expectedSize,
+                decorate(Collections.singletonList(new ExecutionEnvironment()),
+                        Collections.<EnvironmentRule>emptyList()).size());
+    }
+
+    /**
+     * Returns the expansion of this expansion through each of the supplied decorators in turn. As the decorators of
+     * a section replace the environments they decorate, a section that no decorator accepts yields no environments.
+     *
+     * @param decorators the decorators to apply.
+     * @param variables  the variables to pass to the decorators.
+     * @return the decorated expansion.
+     */
+    @NonNull
+    public EnvironmentExpansion decorate(@NonNull List<EnvironmentDecorator> decorators,
+                                         @NonNull Collection<String> variables) {
+        if (decorators.isEmpty()) {
+            return new EnvironmentExpansion(Collections.<ExecutionEnvironment>emptyList(), exclusions);
+        }
+        EnvironmentExpansion result = this;
+        for (EnvironmentDecorator decorator : decorators) {
+            result = new EnvironmentExpansion(result, decorator, variables);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of environments that this expansion is expected to yield, without expanding it. This
+     * assumes that each decorator yields as many environments for every environment it decorates as it does for an
+     * empty environment, which holds for the decorators of this library but decorators that merge duplicates may
+     * yield fewer. Exclusions are not accounted for, so with exclusions this is an upper bound.
+     *
+     * @return the number of environments that this expansion is expected to yield, {@link Long#MAX_VALUE} if that
+     *         does not fit in a {@code long}.
+     */
+    public long expectedSize() {
+        return expectedSize;
+    }
+
+    /**
+     * Returns {@code true} if combinations are left out of this expansion, in which case {@link #expectedSize()} is
+     * an upper bound.
+     *
+     * @return {@code true} if combinations are left out of this expansion.
+     */
+    public boolean hasExclusions() {
+        return !exclusions.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    //@Override
+    public Iterator<ExecutionEnvironment> iterator() {
+        return iterator(exclusions);
+    }
+
+    /**
+     * Returns the environments of this stage that match none of the supplied exclusions.
+     *
+     * @param exclusions the exclusions that the later stages cannot change the outcome of.
+     * @return the environments.
+     */
+    private Iterator<ExecutionEnvironment> iterator(final List<EnvironmentRule> exclusions) {
+        if (parent == null) {
+            return exclusions.isEmpty() ? environments.iterator() : filter(environments.iterator(), exclusions)
+                    .iterator();
+        }
+        return new Iterator<ExecutionEnvironment>() {
+            private final Iterator<ExecutionEnvironment> inputs = parent.iterator(unaffected(exclusions));
+            private final int batchSize = assignments == null ? 1 : BATCH_SIZE;
+            private Iterator<ExecutionEnvironment> outputs = Collections.<ExecutionEnvironment>emptySet().iterator();
+
+            //@Override
+            public boolean hasNext() {
+                while (!outputs.hasNext() && inputs.hasNext()) {
+                    List<ExecutionEnvironment> batch = new ArrayList<ExecutionEnvironment>(batchSize);
+                    while (batch.size() < batchSize && inputs.hasNext()) {
+                        batch.add(inputs.next());
+                    }
+                    outputs = decorate(batch, exclusions).iterator();
+                }
+                return outputs.hasNext();
+            }
+
+            //@Override
+            public ExecutionEnvironment next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return outputs.next();
+            }
+
+            //@Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private Collection<ExecutionEnvironment> decorate(List<ExecutionEnvironment> batch,
+                                                      List<EnvironmentRule> exclusions) {
+        if (assignments != null) {
+            return ((BatchEnvironmentDecorator) decorator).decorate(batch, assignments, exclusions);
+        }
+        // other decorators are handed one environment at a time
+        Collection<ExecutionEnvironment> result = decorator.decorate(batch.get(0), variables);
+        return exclusions.isEmpty() ? result : filter(result.iterator(), exclusions);
+    }
+
+    /**
+     * Returns the exclusions whose outcome this stage cannot change, which are those that constrain none of the
+     * variables it assigns as the batch decorators keep the labels and other variables of what they decorate.
+     */
+    private List<EnvironmentRule> unaffected(List<EnvironmentRule> exclusions) {
+        if (assigned == null || exclusions.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<EnvironmentRule> result = new ArrayList<EnvironmentRule>(exclusions.size());
+        for (EnvironmentRule exclusion : exclusions) {
+            if (!exclusion.constrainsAny(assigned)) {
+                result.add(exclusion);
+            }
+        }
+        return result;
+    }
+
+    private static List<ExecutionEnvironment> filter(Iterator<ExecutionEnvironment> environments,
+                                                     List<EnvironmentRule> exclusions) {
+        List<ExecutionEnvironment> result = new ArrayList<ExecutionEnvironment>();
+        while (environments.hasNext()) {
+            ExecutionEnvironment environment = environments.next();
+            if (!EnvironmentRule.anyMatches(exclusions, environment)) {
+                result.add(environment);
+            }
+        }
+        return result;
+    }
+
+    private static long multiply(long a, long b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        return a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b;
+    }
+}
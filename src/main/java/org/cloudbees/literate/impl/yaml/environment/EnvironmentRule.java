@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl.yaml.environment;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.Immutable;
+import org.cloudbees.literate.api.v1.EnvironmentAssignments;
+import org.cloudbees.literate.api.v1.ExecutionEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A matrix {@code include} or {@code exclude} entry of the YAML {@code env} section, written like a matrix entry
+ * with labels alongside the variables, e.g. {@code "windows JDK=1.6"}.
+ *
+ * @since 0.7
+ */
+@Immutable
+public final class EnvironmentRule {
+
+    /**
+     * The labels that an environment must have.
+     */
+    private final List<String> labels;
+
+    /**
+     * The variables that an environment must have.
+     */
+    private final Map<String, String> variables;
+
+    private EnvironmentRule(List<String> labels, Map<String, String> variables) {
+        this.labels = labels;
+        this.variables = variables;
+    }
+
+    /**
+     * Parses a rule, words containing a {@code =} are {@code KEY=VALUE} variables and the other words are labels.
+     * Values may be quoted as described by {@link EnvironmentAssignments}.
+     *
+     * @param rule the rule.
+     * @return the parsed rule.
+     */
+    @NonNull
+    public static EnvironmentRule parse(@NonNull String rule) {
+        List<String> labels = new ArrayList<String>();
+        Map<String, String> variables = new HashMap<String, String>();
+        EnvironmentAssignments.parse(rule, 0, rule.length(), labels, variables);
+        return new EnvironmentRule(Collections.unmodifiableList(labels), Collections.unmodifiableMap(variables));
+    }
+
+    /**
+     * Returns {@code true} if the environment has all the labels and variables of this rule.
+     *
+     * @param environment the environment.
+     * @return {@code true} if the environment has all the labels and variables of this rule.
+     */
+    public boolean matches(@NonNull ExecutionEnvironment environment) {
+        return matches(environment, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Returns {@code true} if the environment, once the supplied variables are added to it, would have all the labels
+     * and variables of this rule. This lets decorators test a combination before they create it.
+     *
+     * @param environment the environment.
+     * @param additional  the variables that would be added to the environment.
+     * @return {@code true} if the decorated environment would have all the labels and variables of this rule.
+     */
+    public boolean matches(@NonNull ExecutionEnvironment environment, @NonNull Map<String, String> additional) {
+        if (!environment.getLabels().containsAll(labels)) {
+            return false;
+        }
+        for (Map.Entry<String, String> variable : variables.entrySet()) {
+            String value = additional.get(variable.getKey());
+            if (value == null) {
+                value = environment.getVariables().get(variable.getKey());
+            }
+            if (!variable.getValue().equals(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the environment that this rule describes, used for {@code include} entries.
+     *
+     * @return the environment that this rule describes.
+     */
+    @NonNull
+    public ExecutionEnvironment toEnvironment() {
+        return new ExecutionEnvironment(labels, variables);
+    }
+
+    /**
+     * Returns {@code true} if this rule constrains any of the supplied variables.
+     *
+     * @param names the names of the variables.
+     * @return {@code true} if this rule requires a value for any of the variables.
+     */
+    public boolean constrainsAny(@NonNull Collection<String> names) {
+        for (String name : variables.keySet()) {
+            if (names.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if any of the rules matches the environment.
+     *
+     * @param rules       the rules.
+     * @param environment the environment.
+     * @return {@code true} if any of the rules matches the environment.
+     */
+    public static boolean anyMatches(@NonNull List<EnvironmentRule> rules, @NonNull ExecutionEnvironment environment) {
+        for (EnvironmentRule rule : rules) {
+            if (rule.matches(environment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "EnvironmentRule{labels=" + labels + ", variables=" + variables + '}';
+    }
+}
@@ -1,8 +1,10 @@
 package org.cloudbees.literate.impl.yaml.environment;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -11,7 +13,7 @@ import org.cloudbees.literate.api.v1.ExecutionEnvironment;
 /**
  * Decorate the given execution environment with global environment variables
  */
-public class GlobalEnvironmentDecorator extends AbstractEnvironmentDecorator implements EnvironmentDecorator {
+public class GlobalEnvironmentDecorator extends AbstractEnvironmentDecorator implements BatchEnvironmentDecorator {
 
     @Override
     public Set<ExecutionEnvironment> decorate(ExecutionEnvironment environment, Collection<String> variables) {
@@ -22,6 +24,29 @@ public class GlobalEnvironmentDecorator extends AbstractEnvironmentDecorator imp
         return Collections.singleton(environment.withVariables(result));
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The assignments are merged once and every environment gets the merged variables.
+     */
+    //@Override
+    public List<ExecutionEnvironment> decorate(List<ExecutionEnvironment> environments,
+                                               List<Map<String, String>> assignments,
+                                               List<EnvironmentRule> exclusions) {
+        Map<String, String> merged = new HashMap<String, String>();
+        for (Map<String, String> assignment : assignments) {
+            merged.putAll(assignment);
+        }
+        List<ExecutionEnvironment> result = new ArrayList<ExecutionEnvironment>(environments.size());
+        for (ExecutionEnvironment environment : environments) {
+            ExecutionEnvironment decorated = environment.withVariables(merged);
+            if (!EnvironmentRule.anyMatches(exclusions, decorated)) {
+                result.add(decorated);
+            }
+        }
+        return result;
+    }
+
     @Override
     public boolean acceptSection(String sectionName) {
         return "global".equals(sectionName);
@@ -1,7 +1,11 @@
 package org.cloudbees.literate.impl.yaml.environment;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -10,18 +14,68 @@ import org.cloudbees.literate.api.v1.ExecutionEnvironment;
 /**
  * Generate matrix environments from given variables
  */
-public class MatrixEnvironmentDecorator extends AbstractEnvironmentDecorator implements EnvironmentDecorator {
+public class MatrixEnvironmentDecorator extends AbstractEnvironmentDecorator implements BatchEnvironmentDecorator {
 
     @Override
     public Set<ExecutionEnvironment> decorate(ExecutionEnvironment environment, Collection<String> variables) {
-        Set<ExecutionEnvironment> envs = new HashSet<ExecutionEnvironment>();
-        for (String string : variables) {
-            Map<String, String> properties = parseProperties(string);
-            envs.add(environment.withVariables(properties));
+        List<ExecutionEnvironment> envs = new ArrayList<ExecutionEnvironment>(variables.size());
+        decorate(environment, parseAssignments(variables), Collections.<EnvironmentRule>emptyList(), envs);
+        return new DistinctEnvironments(envs);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Excluded combinations are never created. The environments of each input environment follow the order of the
+     * matrix entries, entries that yield the same environment as an earlier entry are skipped.
+     */
+    //@Override
+    public List<ExecutionEnvironment> decorate(List<ExecutionEnvironment> environments,
+                                               List<Map<String, String>> assignments,
+                                               List<EnvironmentRule> exclusions) {
+        List<ExecutionEnvironment> envs = new ArrayList<ExecutionEnvironment>(environments.size() * assignments.size());
+        for (ExecutionEnvironment environment : environments) {
+            decorate(environment, assignments, exclusions, envs);
         }
         return envs;
     }
 
+    private static void decorate(ExecutionEnvironment environment, List<Map<String, String>> assignments,
+                                 List<EnvironmentRule> exclusions, List<ExecutionEnvironment> envs) {
+        // every result shares the labels and variables of the environment, so two entries yield the same result
+        // exactly when they change the same variables to the same values, and those changes are cheap to hash
+        Set<Map<String, String>> changes = new HashSet<Map<String, String>>();
+        for (Map<String, String> properties : assignments) {
+            if (!excluded(environment, properties, exclusions)
+                    && changes.add(changes(environment.getVariables(), properties))) {
+                envs.add(environment.withVariables(properties));
+            }
+        }
+    }
+
+    private static Map<String, String> changes(Map<String, String> variables, Map<String, String> properties) {
+        Map<String, String> result = properties;
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            if (property.getValue().equals(variables.get(property.getKey()))) {
+                if (result == properties) {
+                    result = new HashMap<String, String>(properties);
+                }
+                result.remove(property.getKey());
+            }
+        }
+        return result;
+    }
+
+    private static boolean excluded(ExecutionEnvironment environment, Map<String, String> properties,
+                                    List<EnvironmentRule> exclusions) {
+        for (EnvironmentRule exclusion : exclusions) {
+            if (exclusion.matches(environment, properties)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public boolean acceptSection(String sectionName) {
         return "matrix".equals(sectionName);
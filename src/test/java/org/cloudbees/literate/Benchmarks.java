@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times workloads for the {@code *BenchmarkTest} classes. Those tests always run each workload once and check its
+ * result, so they cost little in the regular build. Only with {@code -Dbenchmarks=true} are the workloads warmed up
+ * and timed, reporting the best of several rounds on standard output.
+ */
+public final class Benchmarks {
+
+    /**
+     * {@code true} if the workloads should be timed.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("benchmarks");
+
+    /**
+     * The number of timed rounds, the best of which is reported.
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * How long each round should last, the number of runs per round is calibrated to this.
+     */
+    private static final long ROUND_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    /**
+     * Keeps the results of the workloads reachable so that their work cannot be optimized away.
+     */
+    private static volatile Object sink;
+
+    private Benchmarks() {
+        // utility class
+    }
+
+    /**
+     * Something to time.
+     *
+     * @param <T> the type of result.
+     */
+    public interface Workload<T> {
+        /**
+         * Does the work once.
+         *
+         * @return the result of the work.
+         * @throws Exception if the work failed.
+         */
+        T run() throws Exception;
+    }
+
+    /**
+     * Runs a workload and, when benchmarks are enabled, times it.
+     *
+     * @param name     what to report the timing as.
+     * @param workload the workload.
+     * @param <T>      the type of result.
+     * @return the result of the first run of the workload, for the caller to check.
+     * @throws Exception if the workload failed.
+     */
+    public static <T> T run(String name, Workload<T> workload) throws Exception {
+        T result = workload.run();
+        if (ENABLED) {
+            System.out.println(String.format("%s: %.1f us/op", name, time(workload) / 1000.0));
+        }
+        return result;
+    }
+
+    /**
+     * Runs two workloads that should give the same result and, when benchmarks are enabled, times how much faster
+     * the candidate is than the baseline.
+     *
+     * @param name      what to report the timing as.
+     * @param baseline  the workload to compare against.
+     * @param candidate the workload being compared.
+     * @param <T>       the type of result.
+     * @return the results of the first run of the baseline and the candidate, for the caller to check.
+     * @throws Exception if either workload failed.
+     */
+    public static <T> List<T> compare(String name, Workload<T> baseline, Workload<T> candidate) throws Exception {
+        List<T> results = new ArrayList<T>(2);
+        results.add(baseline.run());
+        results.add(candidate.run());
+        if (ENABLED) {
+            double baselineNanos = time(baseline);
+            double candidateNanos = time(candidate);
+            System.out.println(String.format("%s: baseline %.1f us/op, candidate %.1f us/op, speed-up %.1fx", name,
+                    baselineNanos / 1000.0, candidateNanos / 1000.0, baselineNanos / candidateNanos));
+        }
+        return results;
+    }
+
+    /**
+     * Times a workload.
+     *
+     * @param workload the workload.
+     * @return the best time of a run in nanoseconds.
+     * @throws Exception if the workload failed.
+     */
+    private static double time(Workload<?> workload) throws Exception {
+        // calibrate, which also warms up the workload
+        int runs = 1;
+        long elapsed;
+        while ((elapsed = round(workload, runs)) < ROUND_NANOS / 2) {
+            runs *= 2;
+        }
+        runs = (int) Math.max(1, runs * ROUND_NANOS / Math.max(1, elapsed));
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            best = Math.min(best, round(workload, runs));
+        }
+        return (double) best / runs;
+    }
+
+    private static long round(Workload<?> workload, int runs) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            sink = workload.run();
+        }
+        return System.nanoTime() - start;
+    }
+}
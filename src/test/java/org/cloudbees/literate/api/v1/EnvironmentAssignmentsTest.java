@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.api.v1;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class EnvironmentAssignmentsTest {
+
+    @Test
+    public void smokes() {
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("A", "b");
+        expected.put("C", "d=e");
+        expected.put("F", "");
+        assertThat(EnvironmentAssignments.parse("A=b  C=d=e\tF="), is(expected));
+    }
+
+    @Test
+    public void quotes() {
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("OPTS", "-Xmx1g -server");
+        expected.put("NAME", "it's \\n");
+        expected.put("PATH", "a b\"c\\$d");
+        assertThat(EnvironmentAssignments.parse("OPTS=\"-Xmx1g -server\" NAME=it\"'s \\n\" PATH=\"a b\\\"c\\\\\\$d\""),
+                is(expected));
+    }
+
+    @Test
+    public void backslashesAreLiteralOutsideQuotes() {
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("JAVA_HOME", "C:\\jdk");
+        expected.put("SHARE", "\\\\server\\dir");
+        expected.put("TEXT", "a\\b c");
+        assertThat(EnvironmentAssignments.parse("JAVA_HOME=C:\\jdk SHARE=\\\\server\\dir TEXT=a\\'b c'"),
+                is(expected));
+    }
+
+    @Test
+    public void range() {
+        Map<String, String> variables = new HashMap<String, String>();
+        List<String> labels = new ArrayList<String>();
+        EnvironmentAssignments.parse("xx linux JDK=\"1.7\" windows yy", 3, 26, labels, variables);
+        assertThat(labels, is(Arrays.asList("linux", "windows")));
+        assertThat(variables.size(), is(1));
+        assertThat(variables.get("JDK"), is("1.7"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void labelsAreRejected() {
+        EnvironmentAssignments.parse("A=b linux");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unterminatedQuote() {
+        EnvironmentAssignments.parse("A=\"b c");
+    }
+}
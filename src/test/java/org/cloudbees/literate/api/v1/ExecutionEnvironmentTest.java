@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.api.v1;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class ExecutionEnvironmentTest {
+
+    @Test
+    public void equalEnvironmentsInternToOneInstance() {
+        ExecutionEnvironment a = new ExecutionEnvironment("java-1.6", "linux", "JDK=1.6");
+        ExecutionEnvironment b = new ExecutionEnvironment(Arrays.asList("linux", "java-1.6"),
+                Collections.singletonMap("JDK", "1.6"));
+        assertThat(a, not(sameInstance(b)));
+        assertThat(a.intern(), sameInstance(b.intern()));
+        assertThat(a.intern().intern(), sameInstance(a.intern()));
+        assertThat(new ExecutionEnvironment().intern(), sameInstance(ExecutionEnvironment.any()));
+    }
+
+    @Test
+    public void deserializedEnvironmentsAreCanonical() throws Exception {
+        ExecutionEnvironment environment = new ExecutionEnvironment("java-1.7", "windows").intern();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(environment);
+        out.close();
+        Object copy = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertThat(copy, is((Object) environment));
+        assertThat(copy, sameInstance((Object) environment));
+        assertThat(copy.hashCode(), is(new ExecutionEnvironment("windows", "java-1.7").hashCode()));
+    }
+
+    @Test
+    public void environmentsAreOrderedByLabelsThenVariables() {
+        List<ExecutionEnvironment> environments = new ArrayList<ExecutionEnvironment>(Arrays.asList(
+                new ExecutionEnvironment("linux", "java-1.7", "JDK=1.7"),
+                new ExecutionEnvironment("windows"),
+                new ExecutionEnvironment("linux", "java-1.7"),
+                new ExecutionEnvironment("linux", "java-1.7", "JDK=1.6"),
+                new ExecutionEnvironment("linux"),
+                new ExecutionEnvironment()));
+        Collections.sort(environments);
+        assertThat(environments, is(Arrays.asList(
+                new ExecutionEnvironment(),
+                new ExecutionEnvironment("java-1.7", "linux"),
+                new ExecutionEnvironment("java-1.7", "linux", "JDK=1.6"),
+                new ExecutionEnvironment("java-1.7", "linux", "JDK=1.7"),
+                new ExecutionEnvironment("linux"),
+                new ExecutionEnvironment("windows"))));
+    }
+
+    @Test
+    public void orderingIsConsistentWithEquals() {
+        ExecutionEnvironment a = new ExecutionEnvironment(new ExecutionEnvironment("B=2", "A=1"), "linux");
+        ExecutionEnvironment b = new ExecutionEnvironment("linux", "A=1", "B=2");
+        assertThat(a.compareTo(b), is(0));
+        assertThat(a, is(b));
+        assertThat(a.hashCode(), is(b.hashCode()));
+        assertThat(a.compareTo(null) > 0, is(true));
+    }
+
+    @Test
+    public void modelsHoldCanonicalEnvironments() throws Exception {
+        ProjectModel first = ProjectModel.builder().addEnvironment("linux").addBuild("mvn test").build();
+        ProjectModel second = ProjectModel.builder().addEnvironment("linux")
+                .addBuild(new ExecutionEnvironment("linux"), "mvn test").build();
+        assertThat(first.getEnvironments().get(0), sameInstance(second.getEnvironments().get(0)));
+        assertThat(second.getBuild().getCommands().keySet().iterator().next(),
+                sameInstance(first.getEnvironments().get(0)));
+    }
+
+    @Test
+    public void matchingNeedsTheLabelsAndVariableNames() {
+        ExecutionEnvironment environment = new ExecutionEnvironment("linux", "java-1.7", "JDK=1.7", "OPTS=-server");
+        assertThat(environment.isMatchFor(ExecutionEnvironment.any()), is(true));
+        assertThat(environment.isMatchFor(new ExecutionEnvironment("linux")), is(true));
+        assertThat(environment.isMatchFor(new ExecutionEnvironment("linux", "java-1.7", "JDK=1.6")), is(true));
+        assertThat(environment.isMatchFor(new ExecutionEnvironment("linux", "windows")), is(false));
+        assertThat(environment.isMatchFor(new ExecutionEnvironment("linux", "M2_HOME=/opt/maven")), is(false));
+        assertThat(new ExecutionEnvironment("linux").isMatchFor(environment), is(false));
+    }
+
+    @Test
+    public void namesSharingBloomBitsAreToldApart() {
+        String label = collision("linux");
+        assertThat(ExecutionEnvironment.bloom(Collections.singleton(label)),
+                is(ExecutionEnvironment.bloom(Collections.singleton("linux"))));
+        assertThat(new ExecutionEnvironment("linux").isMatchFor(new ExecutionEnvironment(label)), is(false));
+        assertThat(new ExecutionEnvironment(label).isMatchFor(new ExecutionEnvironment("linux")), is(false));
+        String name = collision("JDK");
+        assertThat(new ExecutionEnvironment("JDK=1.7").isMatchFor(new ExecutionEnvironment(name + "=1.7")), is(false));
+        assertThat(new ExecutionEnvironment("linux", name + "=1").isMatchFor(
+                new ExecutionEnvironment("linux", name + "=2")), is(true));
+    }
+
+    private static String collision(String name) {
+        long bloom = ExecutionEnvironment.bloom(Collections.singleton(name));
+        for (int i = 0; ; i++) {
+            String candidate = name + i;
+            if (ExecutionEnvironment.bloom(Collections.singleton(candidate)) == bloom) {
+                return candidate;
+            }
+        }
+    }
+
+    @Test
+    public void matchingHoldsForManyDistinctNames() {
+        for (int i = 0; i < 5000; i++) {
+            ExecutionEnvironment environment = new ExecutionEnvironment("label-" + i, "NAME_" + i + "=x");
+            assertThat(environment.isMatchFor(new ExecutionEnvironment("label-" + i)), is(true));
+            assertThat(environment.isMatchFor(new ExecutionEnvironment("NAME_" + i + "=y")), is(true));
+            assertThat(environment.isMatchFor(new ExecutionEnvironment("label-" + (i + 1))), is(false));
+            assertThat(environment.isMatchFor(new ExecutionEnvironment("NAME_" + (i + 1) + "=x")), is(false));
+        }
+    }
+}
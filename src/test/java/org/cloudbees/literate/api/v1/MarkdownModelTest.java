@@ -187,6 +187,20 @@ public class MarkdownModelTest {
         assertThat(model.getBuildFor(ExecutionEnvironment.any()), is(contains(Matchers.containsString("mvn install"))));
     }
 
+    @Test
+    public void markerFileWithoutBuildSection() throws Exception {
+        ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
+        assertThat(model, Matchers.notNullValue());
+        assertThat(model.getBuildFor(ExecutionEnvironment.any()), contains(Matchers.containsString("rake build")));
+    }
+
+    @Test
+    public void markerFileWithEmphasisedBuildHeader() throws Exception {
+        ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
+        assertThat(model, Matchers.notNullValue());
+        assertThat(model.getBuildFor(ExecutionEnvironment.any()), contains(Matchers.containsString("mvn install")));
+    }
+
     @Test(expected=ProjectModelValidationException.class)
     public void noBuildCommand() throws Exception {
         new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
@@ -220,5 +234,8 @@ public class MarkdownModelTest {
                         )));
     }
 
-
+    @Test(expected = ProjectModelBudgetExceededException.class)
+    public void sourceTooLarge() throws Exception {
+        new ProjectModelSource().submit(ProjectModelRequest.builder(repository).withMaxSourceSize(64).build());
+    }
 }
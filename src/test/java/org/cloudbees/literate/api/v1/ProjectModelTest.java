@@ -25,6 +25,8 @@ package org.cloudbees.literate.api.v1;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -70,5 +72,25 @@ public class ProjectModelTest {
         assertThat(model.getBuildFor("windows"), is(Collections.singletonList("mvn.bat test")));
     }
 
-
+    @Test
+    public void commandsAndParametersAccumulate() throws ProjectModelBuildingException {
+        ProjectModel.Builder builder = ProjectModel.builder()
+                .addBuild("mvn clean")
+                .addBuild(Arrays.asList("mvn test", "mvn verify"))
+                .addTask("deploy", "./deploy.sh staging")
+                .addTaskParameter("deploy", new Parameter("TARGET", "where to", "staging", null))
+                .addTask("deploy", new TaskCommands(Collections.singletonList("./deploy.sh production"),
+                        Arrays.asList(new Parameter("TARGET", "ignored", null, null), new Parameter("FORCE", "if set", null, null))));
+        ProjectModel model = builder.build();
+        // the builder must not share its buffers with models that it has already built
+        builder.addBuild("mvn deploy").addTask("deploy", "./notify.sh");
+        assertThat(model.getBuildFor(), is(Arrays.asList("mvn clean", "mvn test", "mvn verify")));
+        assertThat(model.getTask("deploy").getCommand(),
+                is(Arrays.asList("./deploy.sh staging", "./deploy.sh production")));
+        assertThat(new ArrayList<String>(model.getTask("deploy").getParameters().keySet()),
+                is(Arrays.asList("TARGET", "FORCE")));
+        assertThat(model.getTask("deploy").getParameters().get("TARGET").getDescription(), is("where to"));
+        assertThat(builder.build().getBuildFor(), is(Arrays.asList("mvn clean", "mvn test", "mvn verify",
+                "mvn deploy")));
+    }
 }
@@ -28,6 +28,7 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeThat;
 
 import java.io.File;
@@ -42,6 +43,7 @@ import java.util.Map;
 
 import org.cloudbees.literate.api.v1.vfs.FilesystemRepository;
 import org.cloudbees.literate.api.v1.vfs.ProjectRepository;
+import org.cloudbees.literate.impl.YamlProjectModelBuilder;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -103,10 +105,76 @@ public class YamlModelTest {
         assertThatBuildHasFollowingCommands(model, "mvn test");
     }
 
+    @Test(expected = ProjectModelBudgetExceededException.class)
+    public void billionLaughs() throws Exception {
+        new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
+    }
 
     @Test
-    public void environment() throws Exception {
+    public void manyAliases() throws Exception {
+        ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
+        assertEquals(200, model.getBuildFor(ExecutionEnvironment.any()).size());
+        try {
+            new ProjectModelSource().submit(ProjectModelRequest.builder(repository).withMaxAliasedNodes(299).build());
+            fail("The aliases repeat 300 nodes");
+        } catch (ProjectModelBudgetExceededException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void deeplyNested() throws Exception {
+        try {
+            new YamlProjectModelBuilder().build(ProjectModelRequest.builder(repository).build());
+            fail("The model nests more deeply than the default limit");
+        } catch (ProjectModelBudgetExceededException e) {
+            // expected
+        }
+        ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository)
+                .withMaxNestingDepth(61).build());
+        assertThatBuildHasFollowingCommands(model, "mvn install");
+    }
+
+    @Test
+    public void largeDocument() throws Exception {
+        ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
+        assertEquals(200, model.getBuildFor(ExecutionEnvironment.any()).size());
+        try {
+            new YamlProjectModelBuilder().build(ProjectModelRequest.builder(repository).withMaxSourceSize(1000).build());
+            fail("The model is larger than the limit");
+        } catch (ProjectModelBudgetExceededException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void nodeNpm() throws Exception {
         ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
+        assertThatBuildHasFollowingCommands(model, "npm install", "npm test");
+    }
+
+    @Test
+    public void pythonSetup() throws Exception {
+        ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
+        assertThatBuildHasFollowingCommands(model, "pip install -r requirements.txt", "python setup.py test");
+    }
+
+    @Test
+    public void goTool() throws Exception {
+        ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
+        assertThatBuildHasFollowingCommands(model, "go get -d -t -v ./...", "go test -v ./...");
+    }
+
+    @Test
+    public void rubyBundler() throws Exception {
+        ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
+        assertThatBuildHasFollowingCommands(model, "bundle install", "bundle exec rake");
+    }
+
+
+    @Test
+    public void environment() throws Exception {
+        ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository).addTaskIds("mycommand").build());
         ExecutionEnvironment environment = new ExecutionEnvironment("java-1.7", "windows");
         assertThatBuildHasFollowingCommands(model, environment, "echo java-1.7 on windows");
 
@@ -117,6 +185,7 @@ public class YamlModelTest {
         assertThatBuildHasFollowingCommands(model, environment_linux, "echo linux");
 
         assertThatTaskHasFollowingCommands(model, "mycommand", "echo mycommand");
+        assertEquals(Collections.singleton("mycommand"), model.getTaskIds());
     }
 
     @Test
@@ -183,6 +252,95 @@ public class YamlModelTest {
         ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
     }
 
+    @Test
+    public void recursiveBuild() throws Exception {
+        try {
+            new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
+            fail("The build list contains itself");
+        } catch (ProjectModelBuildingException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause().getMessage().contains("*a"));
+        }
+    }
+
+    @Test
+    public void recursiveMatrix() throws Exception {
+        try {
+            new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
+            fail("The matrix list contains itself");
+        } catch (ProjectModelBuildingException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause().getMessage().contains("*m"));
+        }
+    }
+
+    @Test
+    public void matrixEntryWithoutValue() throws Exception {
+        try {
+            new YamlProjectModelBuilder().build(ProjectModelRequest.builder(repository).build());
+            fail("A matrix entry must assign a value");
+        } catch (ProjectModelBuildingException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("matrix") && e.getMessage().contains("BAR"));
+        }
+    }
+
+    @Test
+    public void unterminatedQuote() throws Exception {
+        try {
+            new YamlProjectModelBuilder().build(ProjectModelRequest.builder(repository).build());
+            fail("A global entry must close its quotes");
+        } catch (ProjectModelBuildingException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("global") && e.getMessage().contains("-Xmx1g"));
+        }
+    }
+
+    @Test(expected = ProjectModelBuildingException.class)
+    public void unsafeTag() throws Exception {
+        new YamlProjectModelBuilder().build(ProjectModelRequest.builder(repository).build());
+    }
+
+    @Test
+    public void tooManyEnvironments() throws Exception {
+        ProjectModel model = new YamlProjectModelBuilder().build(ProjectModelRequest.builder(repository).withMaxEnvironments(12).build());
+        assertEquals(12, model.getEnvironments().size());
+        try {
+            new YamlProjectModelBuilder().build(ProjectModelRequest.builder(repository).withMaxEnvironments(11).build());
+            fail("3 environments with a matrix of 4 should exceed a budget of 11 environments");
+        } catch (ProjectModelBudgetExceededException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void matrixExcludeInclude() throws Exception {
+        ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
+        assertThatBuildHasFollowingEnvironment(model,
+                new ExecutionEnvironment("linux").withVariables(Collections.singletonMap("FOO", "1")),
+                new ExecutionEnvironment("linux").withVariables(Collections.singletonMap("FOO", "2")),
+                new ExecutionEnvironment("windows").withVariables(Collections.singletonMap("FOO", "1")),
+                new ExecutionEnvironment("osx").withVariables(Collections.singletonMap("FOO", "3")));
+        assertThatBuildHasFollowingCommands(model,
+                new ExecutionEnvironment("osx").withVariables(Collections.singletonMap("FOO", "3")), "echo foo");
+    }
+
+    @Test
+    public void anchorsInTasks() throws Exception {
+        ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository).addTaskIds("deploy").build());
+        assertThatBuildHasFollowingCommands(model, "mvn dependency:go-offline", "mvn install");
+        assertThatTaskHasFollowingCommands(model, "deploy", "mvn deploy");
+    }
+
+    @Test
+    public void mergeKey() throws Exception {
+        ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository).build());
+        assertThatBuildHasFollowingCommands(model, new ExecutionEnvironment("linux"), "echo linux");
+        assertThatBuildHasFollowingCommands(model, new ExecutionEnvironment("windows"), "echo windows");
+        try {
+            new YamlProjectModelBuilder().build(ProjectModelRequest.builder(repository).withMaxAliasedNodes(0).build());
+            fail("The model aliases a collection");
+        } catch (ProjectModelBudgetExceededException e) {
+            // expected
+        }
+    }
+
     @Test
     public void multipleBuildIdsSeparatedByComma() throws Exception {
         ProjectModel model = new ProjectModelSource().submit(ProjectModelRequest.builder(repository).withBuildId("build, build2").build());
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.api.v1.vfs;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CachedRootRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CountingRepository delegate;
+
+    @Before
+    public void createProject() throws IOException {
+        folder.newFile("pom.xml");
+        folder.newFolder("src");
+        new File(folder.getRoot(), "src/build.gradle").createNewFile();
+        delegate = new CountingRepository(new FilesystemRepository(folder.getRoot()));
+    }
+
+    @Test
+    public void hitsArePassedThrough() throws IOException {
+        CachedRootRepository repository = CachedRootRepository.of(delegate);
+        assertThat(repository.isFile("pom.xml"), is(true));
+        assertThat(repository.isDirectory("/src"), is(true));
+        assertThat(repository.hasRootFile("build.gradle"), is(false));
+        assertThat(repository.hasRootFile("pom.xml"), is(true));
+        assertThat(delegate.listings, is(0));
+        assertThat(delegate.probes, is(4));
+        assertThat(CachedRootRepository.of(repository), is(repository));
+    }
+
+    @Test
+    public void rootIsListedOnceAfterTwoMisses() throws IOException {
+        CachedRootRepository repository = CachedRootRepository.of(delegate);
+        assertThat(repository.hasRootFile("build.gradle"), is(false));
+        assertThat(repository.isFile("src"), is(false));
+        assertThat(delegate.listings, is(0));
+        assertThat(repository.hasRootFile("Gemfile"), is(false));
+        assertThat(repository.isFile("/pom.xml"), is(true));
+        assertThat(repository.isDirectory("src"), is(true));
+        assertThat(repository.getPaths("/").size(), is(2));
+        assertThat(delegate.listings, is(1));
+        assertThat(delegate.probes, is(2));
+    }
+
+    @Test
+    public void otherCasesArePassedThrough() throws IOException {
+        CachedRootRepository repository = CachedRootRepository.of(new CaseInsensitiveRepository(delegate));
+        assertThat(repository.hasRootFile("Gemfile"), is(false));
+        assertThat(repository.hasRootFile("setup.py"), is(false));
+        assertThat(repository.hasRootFile("POM.XML"), is(true));
+        assertThat(repository.hasRootFile("pom.xml"), is(true));
+        assertThat(delegate.listings, is(1));
+        assertThat(delegate.probes, is(3));
+    }
+
+    @Test
+    public void nestedPathsArePassedThrough() throws IOException {
+        CachedRootRepository repository = CachedRootRepository.of(delegate);
+        assertThat(repository.isFile("src/build.gradle"), is(true));
+        assertThat(repository.getPaths("src").size(), is(1));
+        assertThat(delegate.listings, is(1));
+    }
+
+    private static class CountingRepository implements ProjectRepository {
+        private final ProjectRepository delegate;
+        private int listings;
+        private int probes;
+
+        private CountingRepository(ProjectRepository delegate) {
+            this.delegate = delegate;
+        }
+
+        public InputStream get(String filePath) throws IOException {
+            return delegate.get(filePath);
+        }
+
+        public boolean isFile(String path) throws IOException {
+            if (path.indexOf('/', 1) < 0) {
+                probes++;
+            }
+            return delegate.isFile(path);
+        }
+
+        public boolean isDirectory(String path) throws IOException {
+            if (path.indexOf('/', 1) < 0) {
+                probes++;
+            }
+            return delegate.isDirectory(path);
+        }
+
+        public Set<String> getPaths(String path) throws IOException {
+            listings++;
+            return delegate.getPaths(path);
+        }
+    }
+
+    private static class CaseInsensitiveRepository implements ProjectRepository {
+        private final ProjectRepository delegate;
+
+        private CaseInsensitiveRepository(ProjectRepository delegate) {
+            this.delegate = delegate;
+        }
+
+        public InputStream get(String filePath) throws IOException {
+            return delegate.get(filePath.toLowerCase(Locale.ENGLISH));
+        }
+
+        public boolean isFile(String path) throws IOException {
+            return delegate.isFile(path.toLowerCase(Locale.ENGLISH));
+        }
+
+        public boolean isDirectory(String path) throws IOException {
+            return delegate.isDirectory(path.toLowerCase(Locale.ENGLISH));
+        }
+
+        public Set<String> getPaths(String path) throws IOException {
+            return delegate.getPaths(path == null ? null : path.toLowerCase(Locale.ENGLISH));
+        }
+    }
+}
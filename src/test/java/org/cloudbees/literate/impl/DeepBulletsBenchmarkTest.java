@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl;
+
+import org.apache.commons.io.FileUtils;
+import org.cloudbees.literate.Benchmarks;
+import org.cloudbees.literate.api.v1.ExecutionEnvironment;
+import org.cloudbees.literate.api.v1.ProjectModel;
+import org.cloudbees.literate.api.v1.ProjectModelRequest;
+import org.cloudbees.literate.api.v1.vfs.FilesystemRepository;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Measures how long {@link MarkdownProjectModelBuilder} takes to extract a model from a document with deeply nested
+ * build bullets, see {@link Benchmarks}. The document is parsed once and then served from the document cache, so the
+ * timings are of the extraction alone.
+ */
+public class DeepBulletsBenchmarkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void deepBullets() throws Exception {
+        int depth = Benchmarks.ENABLED ? 7 : 3;
+        int fanout = 3;
+        StringBuilder source = new StringBuilder("# Environments\n\n");
+        for (int i = 0; i < fanout; i++) {
+            source.append("* `label-").append(depth).append('-').append(i).append("`\n");
+        }
+        source.append("\n# Build\n\n");
+        builds(source, "", depth, fanout);
+        source.append("\n# Deploy\n\nTARGET\n:   where to, one of `staging`, `production`\n\n    ./deploy.sh\n");
+        FileUtils.writeStringToFile(new File(folder.getRoot(), ".cloudbees.md"), source.toString(), "UTF-8");
+        final ProjectModelRequest request = ProjectModelRequest.builder(new FilesystemRepository(folder.getRoot()))
+                .withParseTimeout(10, TimeUnit.MINUTES).build();
+        final MarkdownProjectModelBuilder builder =
+                new MarkdownProjectModelBuilder(MarkdownProjectModelBuilder.Engine.NATIVE);
+        ProjectModel model = Benchmarks.run("depth " + depth + ", fanout " + fanout,
+                new Benchmarks.Workload<ProjectModel>() {
+                    public ProjectModel run() throws Exception {
+                        return builder.build(request);
+                    }
+                });
+        Map<ExecutionEnvironment, List<String>> commands = model.getBuild().getCommands();
+        assertThat(commands.size(), is(fanout));
+        for (int i = 0; i < fanout; i++) {
+            List<String> environment = commands.get(new ExecutionEnvironment("label-" + depth + "-" + i));
+            assertThat(environment.get(0).trim(), is("make step-" + depth + "-" + i));
+        }
+    }
+
+    private static void builds(StringBuilder source, String indent, int depth, int fanout) {
+        for (int i = 0; i < fanout; i++) {
+            source.append(indent).append("* On `label-").append(depth).append('-').append(i).append("`\n\n");
+            source.append(indent).append("        make step-").append(depth).append('-').append(i).append("\n\n");
+            if (depth > 1) {
+                builds(source, indent + "    ", depth - 1, fanout);
+            }
+        }
+    }
+}
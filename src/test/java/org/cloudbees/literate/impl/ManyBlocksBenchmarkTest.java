@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl;
+
+import org.apache.commons.io.FileUtils;
+import org.cloudbees.literate.Benchmarks;
+import org.cloudbees.literate.api.v1.ProjectModel;
+import org.cloudbees.literate.api.v1.ProjectModelRequest;
+import org.cloudbees.literate.api.v1.vfs.FilesystemRepository;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Measures how long {@link MarkdownProjectModelBuilder} takes to extract a model from a document whose build and
+ * task sections are made of many separate verbatim blocks, each of which is added to the model on its own, see
+ * {@link Benchmarks}. The document is parsed once and then served from the document cache, so the timings are of the
+ * extraction alone.
+ */
+public class ManyBlocksBenchmarkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void manyBlocks() throws Exception {
+        for (int blocks = 100; blocks <= (Benchmarks.ENABLED ? 3200 : 200); blocks *= 2) {
+            StringBuilder source = new StringBuilder("# Build\n\n");
+            blocks(source, "make", blocks);
+            source.append("# Deploy\n\n");
+            blocks(source, "./deploy.sh", blocks);
+            FileUtils.writeStringToFile(new File(folder.getRoot(), ".cloudbees.md"), source.toString(), "UTF-8");
+            final ProjectModelRequest request = ProjectModelRequest.builder(new FilesystemRepository(folder.getRoot()))
+                    .addTaskId("deploy").withMaxSourceSize(source.length())
+                    .withParseTimeout(10, TimeUnit.MINUTES).build();
+            final MarkdownProjectModelBuilder builder =
+                    new MarkdownProjectModelBuilder(MarkdownProjectModelBuilder.Engine.NATIVE);
+            ProjectModel model = Benchmarks.run(blocks + " blocks per section",
+                    new Benchmarks.Workload<ProjectModel>() {
+                        public ProjectModel run() throws Exception {
+                            return builder.build(request);
+                        }
+                    });
+            List<String> build = model.getBuild().getCommands().values().iterator().next();
+            List<String> deploy = model.getTask("deploy").getCommand();
+            assertThat(build.size(), is(blocks));
+            assertThat(deploy.size(), is(blocks));
+            assertThat(build.get(blocks - 1).trim(), is("make step-" + (blocks - 1)));
+            assertThat(deploy.get(0).trim(), is("./deploy.sh step-0"));
+        }
+    }
+
+    private static void blocks(StringBuilder source, String command, int count) {
+        for (int i = 0; i < count; i++) {
+            source.append("Step ").append(i).append(":\n\n    ").append(command).append(" step-").append(i)
+                    .append("\n\n");
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl;
+
+import org.apache.commons.io.FileUtils;
+import org.cloudbees.literate.api.v1.ExecutionEnvironment;
+import org.cloudbees.literate.api.v1.ProjectModel;
+import org.cloudbees.literate.api.v1.ProjectModelRequest;
+import org.cloudbees.literate.api.v1.vfs.FilesystemRepository;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pegdown.ast.CodeNode;
+import org.pegdown.ast.HeaderNode;
+import org.pegdown.ast.Node;
+import org.pegdown.ast.SimpleNode;
+import org.pegdown.ast.StrongNode;
+import org.pegdown.ast.TextNode;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MarkdownProjectModelBuilderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File marker;
+
+    private FilesystemRepository repository;
+
+    @Before
+    public void createRepository() throws Exception {
+        File dir = tmp.newFolder("project");
+        marker = new File(dir, ".cloudbees.md");
+        repository = new FilesystemRepository(dir);
+    }
+
+    @Test
+    public void requestsForOtherSectionsReuseTheParsedDocument() throws Exception {
+        StringBuilder source = new StringBuilder("# Build\n\n    mvn install\n\n# Deploy\n\n    mvn deploy\n\n");
+        source.append("# Promote\n\n    ./promote.sh\n\n# Notes\n\n");
+        for (int i = 0; i < 2000; i++) {
+            source.append("* Note ").append(i).append(" about `something` *important*\n\n    details\n\n");
+        }
+        FileUtils.writeStringToFile(marker, source.toString(), "UTF-8");
+
+        ProjectModel model = new MarkdownProjectModelBuilder().build(ProjectModelRequest.builder(repository)
+                .addTaskId("deploy").withParseTimeout(1, TimeUnit.MINUTES).build());
+        assertThat(model.getTask("deploy").getCommand(), contains("mvn deploy\n"));
+
+        // no parser gets through this much Markdown in a millisecond, so this only passes if nothing is re-parsed
+        model = new MarkdownProjectModelBuilder().build(ProjectModelRequest.builder(repository)
+                .addTaskId("promote").withParseTimeout(1, TimeUnit.MILLISECONDS).build());
+        assertThat(model.getBuildFor(ExecutionEnvironment.any()), contains("mvn install\n"));
+        assertThat(model.getTask("promote").getCommand(), contains("./promote.sh\n"));
+        assertThat(model.getTask("deploy"), is((Object) null));
+    }
+
+    @Test
+    public void changedSourceIsParsedAgain() throws Exception {
+        FileUtils.writeStringToFile(marker, "# Build\n\n    mvn install\n", "UTF-8");
+        ProjectModel model = new MarkdownProjectModelBuilder().build(ProjectModelRequest.builder(repository).build());
+        assertThat(model.getBuildFor(ExecutionEnvironment.any()), contains("mvn install\n"));
+
+        FileUtils.writeStringToFile(marker, "# Build\n\n    mvn verify\n", "UTF-8");
+        model = new MarkdownProjectModelBuilder().build(ProjectModelRequest.builder(repository).build());
+        assertThat(model.getBuildFor(ExecutionEnvironment.any()), contains("mvn verify\n"));
+    }
+
+    @Test
+    public void onlyChangedSectionsAreParsedAgain() throws Exception {
+        StringBuilder notes = new StringBuilder("# Notes\n\n");
+        for (int i = 0; i < 2000; i++) {
+            notes.append("Note ").append(i).append(" about `something` *important*\n\n    details\n\n");
+        }
+        FileUtils.writeStringToFile(marker, "# Build\n\n    mvn install\n\n" + notes, "UTF-8");
+        MarkdownProjectModelBuilder builder =
+                new MarkdownProjectModelBuilder(MarkdownProjectModelBuilder.Engine.PEGDOWN);
+        ProjectModel model = builder.build(ProjectModelRequest.builder(repository)
+                .withParseTimeout(1, TimeUnit.MINUTES).build());
+        assertThat(model.getBuildFor(ExecutionEnvironment.any()), contains("mvn install\n"));
+
+        // pegdown cannot get through the notes again in the budget, so this only passes if they are not re-parsed
+        FileUtils.writeStringToFile(marker, "# Build\n\n    mvn verify\n\n" + notes, "UTF-8");
+        model = builder.build(ProjectModelRequest.builder(repository)
+                .withParseTimeout(50, TimeUnit.MILLISECONDS).build());
+        assertThat(model.getBuildFor(ExecutionEnvironment.any()), contains("mvn verify\n"));
+    }
+
+    @Test
+    public void headersInFencedCodeDoNotStartSections() throws Exception {
+        FileUtils.writeStringToFile(marker, "# Build\n\n```\nmvn install\n\n# Deploy\n\nmvn deploy\n```\n\n"
+                + "# Promote\n\n    ./promote.sh\n", "UTF-8");
+        ProjectModel model = new MarkdownProjectModelBuilder().build(ProjectModelRequest.builder(repository)
+                .addTaskIds("deploy", "promote").build());
+        assertThat(model.getBuildFor(ExecutionEnvironment.any()),
+                contains("mvn install\n\n# Deploy\n\nmvn deploy\n"));
+        assertThat(model.getTask("deploy"), is((Object) null));
+        assertThat(model.getTask("promote").getCommand(), contains("./promote.sh\n"));
+    }
+
+    @Test
+    public void textIsCollectedFromNestedNodes() throws Exception {
+        Node until = new TextNode(" ignored");
+        HeaderNode header = new HeaderNode(1, new TextNode("Deploy to "));
+        header.getChildren().add(new StrongNode(Arrays.<Node>asList(new TextNode("prod"), new CodeNode("uction"))));
+        header.getChildren().add(new SimpleNode(SimpleNode.Type.Linebreak));
+        header.getChildren().add(until);
+        assertThat(MarkdownProjectModelBuilder.getText(header), is("Deploy to production ignored"));
+        assertThat(MarkdownProjectModelBuilder.getTextUntil(header, until), is("Deploy to production"));
+        assertThat(MarkdownProjectModelBuilder.getTextUntil(header, header), is(""));
+        assertThat(MarkdownProjectModelBuilder.getText(new CodeNode("mvn")), is("mvn"));
+    }
+
+    @Test
+    public void sourceIsDecodedAsUtf8() throws Exception {
+        FileUtils.writeStringToFile(marker, "# Build\n\n    echo caf\u00e9 \ud83d\ude80\n", "UTF-8");
+        ProjectModel model = new MarkdownProjectModelBuilder().build(ProjectModelRequest.builder(repository).build());
+        assertThat(model.getBuildFor(ExecutionEnvironment.any()), contains("echo caf\u00e9 \ud83d\ude80\n"));
+    }
+
+    @Test
+    public void byteOrderMarkSelectsTheCharset() throws Exception {
+        String source = "# Build\n\n    echo caf\u00e9\n";
+        String[] charsets = {"UTF-8", "UTF-16BE", "UTF-16LE"};
+        for (String charset : charsets) {
+            FileUtils.writeStringToFile(marker, "\ufeff" + source, charset);
+            ProjectModel model =
+                    new MarkdownProjectModelBuilder().build(ProjectModelRequest.builder(repository).build());
+            assertThat(charset, model.getBuildFor(ExecutionEnvironment.any()), contains("echo caf\u00e9\n"));
+        }
+    }
+
+    @Test
+    public void invalidUtf8IsDecodedAsLatin1() throws Exception {
+        FileUtils.writeStringToFile(marker, "# Build\n\n    echo caf\u00e9\n", "ISO-8859-1");
+        ProjectModel model = new MarkdownProjectModelBuilder().build(ProjectModelRequest.builder(repository).build());
+        assertThat(model.getBuildFor(ExecutionEnvironment.any()), contains("echo caf\u00e9\n"));
+    }
+}
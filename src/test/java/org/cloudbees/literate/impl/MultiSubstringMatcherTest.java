@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MultiSubstringMatcherTest {
+
+    @Test
+    public void overlappingPatterns() {
+        MultiSubstringMatcher matcher = new MultiSubstringMatcher(Arrays.asList("he", "she", "his", "hers"));
+        assertThat(matcher.find("ushers"), is(bits(0, 1, 3)));
+        assertThat(matcher.find("this"), is(bits(2)));
+        assertThat(matcher.find("nothing"), is(bits()));
+    }
+
+    @Test
+    public void duplicateAndEmptyPatterns() {
+        MultiSubstringMatcher matcher = new MultiSubstringMatcher(Arrays.asList("build", "", "build"));
+        assertThat(matcher.find("how to build"), is(bits(0, 1, 2)));
+        assertThat(matcher.find(""), is(bits(1)));
+    }
+
+    @Test
+    public void noPatterns() {
+        MultiSubstringMatcher matcher = new MultiSubstringMatcher(Collections.<String>emptyList());
+        assertThat(matcher.size(), is(0));
+        assertThat(matcher.find("anything"), is(bits()));
+    }
+
+    @Test
+    public void sameAsStringContains() {
+        Random random = new Random(1L);
+        for (int round = 0; round < 200; round++) {
+            String[] patterns = new String[1 + random.nextInt(6)];
+            for (int i = 0; i < patterns.length; i++) {
+                patterns[i] = randomString(random, 1 + random.nextInt(4));
+            }
+            MultiSubstringMatcher matcher = new MultiSubstringMatcher(Arrays.asList(patterns));
+            for (int t = 0; t < 20; t++) {
+                String text = randomString(random, random.nextInt(30));
+                BitSet expected = new BitSet();
+                for (int i = 0; i < patterns.length; i++) {
+                    if (text.contains(patterns[i])) {
+                        expected.set(i);
+                    }
+                }
+                assertThat(Arrays.toString(patterns) + " in " + text, matcher.find(text), is(expected));
+            }
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder result = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            result.append((char) ('a' + random.nextInt(3)));
+        }
+        return result.toString();
+    }
+
+    private static BitSet bits(int... indices) {
+        BitSet result = new BitSet();
+        for (int index : indices) {
+            result.set(index);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl;
+
+import org.cloudbees.literate.api.v1.ExecutionEnvironment;
+import org.junit.Test;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class YamlCommandPlanTest {
+
+    private static YamlCommandPlan compile(String yaml) {
+        return YamlCommandPlan.compile(new Yaml(new SafeConstructor()).load(yaml));
+    }
+
+    @Test
+    public void unconditionalCommandsAreShared() {
+        YamlCommandPlan plan = compile("[make, [make check, make install]]");
+        assertThat(plan.commands(new ExecutionEnvironment("linux")),
+                is(Arrays.asList("make", "make check", "make install")));
+        assertThat(plan.commands(new ExecutionEnvironment("windows")),
+                sameInstance(plan.commands(new ExecutionEnvironment("linux"))));
+    }
+
+    @Test
+    public void branchesFollowTheLabels() {
+        YamlCommandPlan plan = compile("- ./configure\n"
+                + "- linux: make\n"
+                + "  windows: [nmake, {x64: nmake x64}]\n"
+                + "  1: never\n"
+                + "- make install\n");
+        assertThat(plan.commands(new ExecutionEnvironment("linux")),
+                is(Arrays.asList("./configure", "make", "make install")));
+        assertThat(plan.commands(new ExecutionEnvironment("windows", "x64")),
+                is(Arrays.asList("./configure", "nmake", "nmake x64", "make install")));
+        assertThat(plan.commands(new ExecutionEnvironment("windows", "linux")),
+                is(Arrays.asList("./configure", "make", "nmake", "make install")));
+        assertThat(plan.commands(new ExecutionEnvironment("osx")),
+                is(Arrays.asList("./configure", "make install")));
+    }
+
+    @Test
+    public void otherValuesHaveNoCommands() {
+        assertThat(compile("42").commands(new ExecutionEnvironment("linux")),
+                is(Collections.<String>emptyList()));
+        assertThat(compile("{linux: [1, 2]}").commands(new ExecutionEnvironment("linux")),
+                is(Collections.<String>emptyList()));
+    }
+}
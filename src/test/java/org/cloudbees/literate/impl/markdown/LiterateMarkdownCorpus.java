@@ -0,0 +1,280 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl.markdown;
+
+import java.util.Random;
+
+/**
+ * Generates pseudo-random literate build descriptions that exercise the Markdown constructs read by
+ * {@link org.cloudbees.literate.impl.MarkdownProjectModelBuilder}.
+ */
+class LiterateMarkdownCorpus {
+
+    private static final String[] LABELS = {"java", "ruby", "linux", "windows", "x86", "x64", "oraclejdk7",
+            "openjdk6", "jdk8", "node"};
+
+    private static final String[] WORDS = {"the", "build", "runs", "on", "every", "branch", "we", "want", "to",
+            "test", "package", "deploy", "this", "project", "with", "some", "options", "first", "then", "README"};
+
+    private static final String[] COMMANDS = {"mvn test", "mvn package", "mvn -B verify", "rake build",
+            "rake clean", "./configure", "make all", "echo $JAVA_HOME", "ant dist", "./bin/ci-cleanup"};
+
+    private static final String[] PARAMETERS = {"JAVA_HOME", "ANT_HOME", "MAVEN_HOME", "TARGET", "DEBUG"};
+
+    private final Random random;
+
+    LiterateMarkdownCorpus(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generates the next document.
+     *
+     * @return the next document.
+     */
+    String next() {
+        StringBuilder doc = new StringBuilder();
+        if (random.nextBoolean()) {
+            header(doc, 1, "My " + word() + " project");
+            paragraphs(doc);
+        }
+        if (random.nextInt(4) != 0) {
+            header(doc, 1 + random.nextInt(2), random.nextBoolean() ? "Environments" : "Target environments");
+            if (random.nextBoolean()) {
+                paragraphs(doc);
+            }
+            environments(doc, 0);
+            blank(doc);
+        }
+        header(doc, 1 + random.nextInt(2), random.nextBoolean() ? "Build" : "How to build");
+        if (random.nextBoolean()) {
+            paragraphs(doc);
+        }
+        int blocks = 1 + random.nextInt(3);
+        for (int i = 0; i < blocks; i++) {
+            block(doc);
+        }
+        if (random.nextBoolean()) {
+            header(doc, 1 + random.nextInt(2), random.nextBoolean() ? "Deploy" : "Deploy to *production*");
+            block(doc);
+        }
+        if (random.nextBoolean()) {
+            header(doc, 2, "Notes");
+            paragraphs(doc);
+        }
+        return doc.toString();
+    }
+
+    private void block(StringBuilder doc) {
+        switch (random.nextInt(6)) {
+            case 0:
+            case 1:
+                verbatim(doc, "    ");
+                break;
+            case 2:
+                builds(doc);
+                break;
+            case 3:
+                definitions(doc);
+                break;
+            case 4:
+                fenced(doc);
+                break;
+            default:
+                paragraphs(doc);
+                break;
+        }
+        blank(doc);
+    }
+
+    private void header(StringBuilder doc, int level, String text) {
+        if (random.nextBoolean()) {
+            for (int i = 0; i < level; i++) {
+                doc.append('#');
+            }
+            doc.append(' ').append(text);
+            if (random.nextInt(4) == 0) {
+                doc.append(' ').append("##");
+            }
+            doc.append('\n');
+        } else {
+            doc.append(text).append('\n');
+            int width = 3 + random.nextInt(text.length());
+            for (int i = 0; i < width; i++) {
+                doc.append(level == 1 ? '=' : '-');
+            }
+            doc.append('\n');
+        }
+        blank(doc);
+    }
+
+    private void environments(StringBuilder doc, int depth) {
+        String indent = "        ".substring(0, depth * 4);
+        int items = 1 + random.nextInt(3);
+        for (int i = 0; i < items; i++) {
+            doc.append(indent).append(bullet()).append(' ');
+            labels(doc, false);
+            doc.append('\n');
+            if (depth < 2 && random.nextInt(3) == 0) {
+                environments(doc, depth + 1);
+            }
+        }
+    }
+
+    private void builds(StringBuilder doc) {
+        int items = 1 + random.nextInt(3);
+        for (int i = 0; i < items; i++) {
+            doc.append(bullet()).append(' ');
+            if (random.nextBoolean()) {
+                doc.append("On ");
+            }
+            labels(doc, random.nextBoolean());
+            doc.append('\n');
+            blank(doc);
+            int commands = 1 + random.nextInt(2);
+            for (int j = 0; j < commands; j++) {
+                if (random.nextBoolean()) {
+                    doc.append("    ");
+                    words(doc, 3 + random.nextInt(6));
+                    doc.append('\n');
+                    blank(doc);
+                }
+                verbatim(doc, "        ");
+            }
+            blank(doc);
+        }
+    }
+
+    private void definitions(StringBuilder doc) {
+        int items = 1 + random.nextInt(3);
+        for (int i = 0; i < items; i++) {
+            doc.append(PARAMETERS[random.nextInt(PARAMETERS.length)]).append('\n');
+            doc.append(":   ");
+            words(doc, 2 + random.nextInt(5));
+            int values = random.nextInt(3);
+            for (int j = 0; j < values; j++) {
+                doc.append(j == 0 ? ", defaults to `" : ", or `").append('/').append(word()).append('/')
+                        .append(word()).append('`');
+            }
+            doc.append('\n');
+            blank(doc);
+        }
+    }
+
+    private void verbatim(StringBuilder doc, String indent) {
+        int lines = 1 + random.nextInt(3);
+        for (int i = 0; i < lines; i++) {
+            doc.append(indent).append(COMMANDS[random.nextInt(COMMANDS.length)]).append('\n');
+        }
+        blank(doc);
+    }
+
+    private void fenced(StringBuilder doc) {
+        String fence = random.nextBoolean() ? "```" : "~~~";
+        doc.append(fence);
+        if (random.nextBoolean()) {
+            doc.append("sh");
+        }
+        doc.append('\n');
+        int lines = 1 + random.nextInt(3);
+        for (int i = 0; i < lines; i++) {
+            doc.append(COMMANDS[random.nextInt(COMMANDS.length)]).append('\n');
+        }
+        doc.append(fence).append('\n');
+    }
+
+    private void paragraphs(StringBuilder doc) {
+        int count = 1 + random.nextInt(2);
+        for (int i = 0; i < count; i++) {
+            int lines = 1 + random.nextInt(3);
+            for (int j = 0; j < lines; j++) {
+                if (random.nextInt(3) == 0) {
+                    doc.append("  ");
+                }
+                words(doc, 3 + random.nextInt(8));
+                doc.append('\n');
+            }
+            blank(doc);
+        }
+    }
+
+    private void words(StringBuilder doc, int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                doc.append(' ');
+            }
+            switch (random.nextInt(12)) {
+                case 0:
+                    doc.append('`').append(word()).append('`');
+                    break;
+                case 1:
+                    doc.append('*').append(word()).append('*');
+                    break;
+                case 2:
+                    doc.append("**").append(word()).append("**");
+                    break;
+                case 3:
+                    doc.append('[').append(word()).append("](http://example.com/").append(word()).append(')');
+                    break;
+                case 4:
+                    doc.append("http://example.com/").append(word());
+                    break;
+                default:
+                    doc.append(word());
+                    break;
+            }
+        }
+    }
+
+    private void labels(StringBuilder doc, boolean prose) {
+        int count = 1 + random.nextInt(3);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                doc.append(prose && random.nextBoolean() ? " and " : ", ");
+            }
+            doc.append('`').append(LABELS[random.nextInt(LABELS.length)]).append('`');
+        }
+    }
+
+    private String bullet() {
+        switch (random.nextInt(4)) {
+            case 0:
+                return "*";
+            case 1:
+                return "+";
+            case 2:
+                return "-";
+            default:
+                return "1.";
+        }
+    }
+
+    private String word() {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private void blank(StringBuilder doc) {
+        doc.append('\n');
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl.markdown;
+
+import org.cloudbees.literate.Benchmarks;
+import org.junit.Test;
+import org.pegdown.Extensions;
+import org.pegdown.PegDownProcessor;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Compares the parsing throughput of pegdown and the {@link NativeMarkdownParser} over a generated corpus of
+ * literate build descriptions, see {@link Benchmarks}.
+ */
+public class MarkdownEngineBenchmarkTest {
+
+    private static final int GITHUB = Extensions.AUTOLINKS + Extensions.FENCED_CODE_BLOCKS + Extensions.HARDWRAPS
+            + Extensions.DEFINITIONS;
+
+    @Test
+    public void corpus() throws Exception {
+        LiterateMarkdownCorpus corpus = new LiterateMarkdownCorpus(1L);
+        final char[][] sources = new char[Benchmarks.ENABLED ? 2000 : 20][];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = corpus.next().toCharArray();
+        }
+        List<Integer> blocks = Benchmarks.compare("pegdown vs native parser", new Benchmarks.Workload<Integer>() {
+            public Integer run() {
+                int blocks = 0;
+                for (char[] source : sources) {
+                    blocks += new PegDownProcessor(GITHUB).parseMarkdown(source.clone()).getChildren().size();
+                }
+                return blocks;
+            }
+        }, new Benchmarks.Workload<Integer>() {
+            public Integer run() {
+                int blocks = 0;
+                for (char[] source : sources) {
+                    blocks += new NativeMarkdownParser().parse(source).getChildren().size();
+                }
+                return blocks;
+            }
+        });
+        assertThat(blocks.get(1), is(blocks.get(0)));
+    }
+}
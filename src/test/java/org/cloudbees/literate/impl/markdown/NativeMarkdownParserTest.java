@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl.markdown;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.cloudbees.literate.api.v1.ProjectModel;
+import org.cloudbees.literate.api.v1.ProjectModelBudgetExceededException;
+import org.cloudbees.literate.api.v1.ProjectModelRequest;
+import org.cloudbees.literate.api.v1.vfs.FilesystemRepository;
+import org.cloudbees.literate.impl.MarkdownProjectModelBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pegdown.Extensions;
+import org.pegdown.PegDownProcessor;
+import org.pegdown.ast.BlockQuoteNode;
+import org.pegdown.ast.CodeNode;
+import org.pegdown.ast.HtmlBlockNode;
+import org.pegdown.ast.Node;
+import org.pegdown.ast.SimpleNode;
+import org.pegdown.ast.TextNode;
+import org.pegdown.ast.VerbatimNode;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Differential tests comparing the trees and models produced by the {@link NativeMarkdownParser} with those
+ * produced by pegdown.
+ */
+public class NativeMarkdownParserTest {
+
+    private static final int CORPUS_SIZE = 500;
+
+    private static final int GITHUB = Extensions.AUTOLINKS + Extensions.FENCED_CODE_BLOCKS + Extensions.HARDWRAPS
+            + Extensions.DEFINITIONS;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void fixtures() throws Exception {
+        for (File file : fixtureFiles()) {
+            assertSameTree(file.getPath(), FileUtils.readFileToString(file, "UTF-8"));
+        }
+    }
+
+    @Test
+    public void snippets() throws Exception {
+        InputStream stream = getClass().getResourceAsStream(getClass().getSimpleName() + "/snippets.txt");
+        try {
+            String[] snippets = IOUtils.toString(stream, "UTF-8").split("%%%\n");
+            for (int i = 0; i < snippets.length; i++) {
+                assertSameTree("snippet " + i, snippets[i]);
+            }
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    @Test
+    public void corpus() throws Exception {
+        LiterateMarkdownCorpus corpus = new LiterateMarkdownCorpus(42L);
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            assertSameTree("document " + i, corpus.next());
+        }
+    }
+
+    @Test
+    public void fixtureModels() throws Exception {
+        for (File file : fixtureFiles()) {
+            FilesystemRepository repository = new FilesystemRepository(file.getParentFile());
+            assertSameModel(file.getPath(), ProjectModelRequest.builder(repository).addTaskIds("deploy", "task")
+                    .build());
+            assertSameModel(file.getPath(), ProjectModelRequest.builder(repository).withBaseName("foobar")
+                    .withEnvironmentsId("target").withBuildId("how to").addTaskIds("install", "uninstall").build());
+        }
+    }
+
+    @Test
+    public void corpusModels() throws Exception {
+        LiterateMarkdownCorpus corpus = new LiterateMarkdownCorpus(43L);
+        File dir = tmp.newFolder("corpus");
+        File file = new File(dir, ".cloudbees.md");
+        FilesystemRepository repository = new FilesystemRepository(dir);
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            String document = corpus.next();
+            FileUtils.writeStringToFile(file, document, "UTF-8");
+            assertSameModel(document, ProjectModelRequest.builder(repository).addTaskIds("deploy").build());
+        }
+    }
+
+    @Test
+    public void parseTimeout() throws Exception {
+        LiterateMarkdownCorpus corpus = new LiterateMarkdownCorpus(44L);
+        StringBuilder document = new StringBuilder();
+        while (document.length() < 1024 * 1024) {
+            document.append(corpus.next());
+        }
+        File dir = tmp.newFolder("timeout");
+        FileUtils.writeStringToFile(new File(dir, ".cloudbees.md"), document.toString(), "UTF-8");
+        ProjectModelRequest request = ProjectModelRequest.builder(new FilesystemRepository(dir))
+                .withMaxSourceSize(2 * 1024 * 1024).withParseTimeout(1, TimeUnit.MILLISECONDS).build();
+        for (MarkdownProjectModelBuilder.Engine engine : MarkdownProjectModelBuilder.Engine.values()) {
+            try {
+                new MarkdownProjectModelBuilder(engine).build(request);
+                fail(engine + " should not parse a megabyte in a millisecond");
+            } catch (ProjectModelBudgetExceededException e) {
+                // expected
+            }
+        }
+    }
+
+    private List<File> fixtureFiles() throws Exception {
+        URL url = getClass().getResource("/org/cloudbees/literate/api/v1/MarkdownModelTest");
+        List<File> result = new ArrayList<File>();
+        for (File dir : new File(url.toURI()).listFiles()) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(".md")) {
+                        result.add(file);
+                    }
+                }
+            }
+        }
+        assertThat("Found the MarkdownModelTest fixtures", result.isEmpty(), is(false));
+        return result;
+    }
+
+    private static void assertSameTree(String name, String source) {
+        char[] chars = source.toCharArray();
+        String expected = describe(new PegDownProcessor(GITHUB).parseMarkdown(chars.clone()));
+        String actual = describe(new NativeMarkdownParser().parse(chars.clone()));
+        assertThat(name + ":\n" + source, actual, is(expected));
+    }
+
+    private static void assertSameModel(String name, ProjectModelRequest request) {
+        String expected = describe(MarkdownProjectModelBuilder.Engine.PEGDOWN, request);
+        String actual = describe(MarkdownProjectModelBuilder.Engine.NATIVE, request);
+        assertThat(name, actual, is(expected));
+    }
+
+    private static String describe(MarkdownProjectModelBuilder.Engine engine, ProjectModelRequest request) {
+        try {
+            ProjectModel model = new MarkdownProjectModelBuilder(engine).build(request);
+            StringBuilder result = new StringBuilder();
+            result.append("environments=").append(model.getEnvironments());
+            result.append(" build=").append(model.getBuild());
+            for (String taskId : model.getTaskIds()) {
+                result.append(' ').append(taskId).append('=').append(model.getTask(taskId));
+            }
+            return result.toString();
+        } catch (Exception e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    }
+
+    /**
+     * Renders the parts of a tree that matter to the builder: node types, structure and text. Adjacent text nodes
+     * are merged and line breaks are dropped as pegdown splits text at different points than the native parser does,
+     * and the content of block quotes is not parsed by the native parser.
+     */
+    private static String describe(Node node) {
+        StringBuilder builder = new StringBuilder();
+        describe(node, builder);
+        return builder.toString();
+    }
+
+    private static void describe(Node node, StringBuilder builder) {
+        if (node instanceof TextNode) {
+            builder.append(node.getClass().getSimpleName()).append('(')
+                    .append(((TextNode) node).getText()).append(')');
+            return;
+        }
+        builder.append(node.getClass().getSimpleName());
+        if (node instanceof BlockQuoteNode) {
+            return;
+        }
+        builder.append('[');
+        StringBuilder text = null;
+        for (Node child : node.getChildren()) {
+            if (isLinebreak(child)) {
+                continue;
+            }
+            if (child instanceof TextNode && !(child instanceof VerbatimNode || child instanceof CodeNode
+                    || child instanceof HtmlBlockNode)) {
+                if (text == null) {
+                    text = new StringBuilder();
+                }
+                text.append(((TextNode) child).getText());
+                continue;
+            }
+            if (text != null) {
+                builder.append("Text(").append(text).append(") ");
+                text = null;
+            }
+            describe(child, builder);
+            builder.append(' ');
+        }
+        if (text != null) {
+            builder.append("Text(").append(text).append(')');
+        }
+        builder.append(']');
+    }
+
+    private static boolean isLinebreak(Node node) {
+        return node instanceof SimpleNode && ((SimpleNode) node).getType() == SimpleNode.Type.Linebreak;
+    }
+}
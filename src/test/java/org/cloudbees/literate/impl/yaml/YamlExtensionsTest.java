@@ -0,0 +1,106 @@
+package org.cloudbees.literate.impl.yaml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cloudbees.literate.impl.yaml.environment.EnvironmentDecorator;
+import org.cloudbees.literate.impl.yaml.environment.GlobalEnvironmentDecorator;
+import org.cloudbees.literate.impl.yaml.environment.MatrixEnvironmentDecorator;
+import org.junit.Test;
+
+public class YamlExtensionsTest {
+    private final ClassLoader classLoader = getClass().getClassLoader();
+
+    @Test
+    public void extensions_are_discovered_once_per_class_loader() {
+        YamlExtensions extensions = YamlExtensions.of(classLoader);
+        assertSame(extensions, YamlExtensions.of(classLoader));
+        assertSame(extensions.getLanguage("java"), YamlExtensions.of(classLoader).getLanguage("java"));
+        assertSame(extensions.getDecorators("matrix"), extensions.getDecorators("matrix"));
+    }
+
+    @Test
+    public void languages_are_looked_up_by_name() {
+        assertTrue(YamlExtensions.of(classLoader).getLanguage("java") instanceof JavaLanguage);
+        assertNull(YamlExtensions.of(classLoader).getLanguage("cobol"));
+        assertNull(YamlExtensions.of(classLoader).getLanguage(null));
+    }
+
+    @Test
+    public void decorators_are_looked_up_by_section() {
+        List<EnvironmentDecorator> matrix = YamlExtensions.of(classLoader).getDecorators("matrix");
+        assertEquals(1, matrix.size());
+        assertTrue(matrix.get(0) instanceof MatrixEnvironmentDecorator);
+        List<EnvironmentDecorator> global = YamlExtensions.of(classLoader).getDecorators("global");
+        assertEquals(1, global.size());
+        assertTrue(global.get(0) instanceof GlobalEnvironmentDecorator);
+        assertTrue(YamlExtensions.of(classLoader).getDecorators("unknown").isEmpty());
+    }
+
+    @Test
+    public void library_extensions_survive_garbage_collection() throws Exception {
+        ClassLoader library = YamlExtensions.class.getClassLoader();
+        WeakReference<YamlExtensions> first = new WeakReference<YamlExtensions>(YamlExtensions.of(library));
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertSame(first.get(), YamlExtensions.of(library));
+    }
+
+    @Test
+    public void discarded_class_loaders_are_not_kept_reachable() throws Exception {
+        URL classes = JavaLanguage.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader plugin = new ChildFirstClassLoader(classes, classLoader, JavaLanguage.class.getName());
+        Language language = YamlExtensions.of(plugin).getLanguage("java");
+        // the provider comes from the plugin class loader, so the extensions reach it strongly
+        assertSame(plugin, language.getClass().getClassLoader());
+        assertNotSame(JavaLanguage.class, language.getClass());
+        WeakReference<ClassLoader> reference = new WeakReference<ClassLoader>(plugin);
+        plugin = null;
+        language = null;
+        List<byte[]> garbage = new ArrayList<byte[]>();
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            garbage.add(new byte[1024 * 1024]);
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+    }
+
+    /**
+     * Defines the named classes itself, as a plugin class loader would, and leaves everything else to its parent.
+     */
+    private static class ChildFirstClassLoader extends URLClassLoader {
+        private final String childFirst;
+
+        ChildFirstClassLoader(URL url, ClassLoader parent, String childFirst) {
+            super(new URL[]{url}, parent);
+            this.childFirst = childFirst;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(childFirst)) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                c = findClass(name);
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+    }
+}
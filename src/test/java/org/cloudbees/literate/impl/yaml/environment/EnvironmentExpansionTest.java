@@ -0,0 +1,156 @@
+package org.cloudbees.literate.impl.yaml.environment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.cloudbees.literate.api.v1.ExecutionEnvironment;
+import org.junit.Test;
+
+public class EnvironmentExpansionTest {
+
+    private static final List<String> MATRIX = Arrays.asList("A=1", "A=2", "A=3");
+
+    private int decorations;
+
+    private final EnvironmentDecorator counting = new MatrixEnvironmentDecorator() {
+        @Override
+        public List<ExecutionEnvironment> decorate(List<ExecutionEnvironment> environments,
+                                                   List<Map<String, String>> assignments,
+                                                   List<EnvironmentRule> exclusions) {
+            decorations += environments.size();
+            return super.decorate(environments, assignments, exclusions);
+        }
+    };
+
+    private static final ExecutionEnvironment LINUX = new ExecutionEnvironment("linux");
+
+    private static final ExecutionEnvironment WINDOWS = new ExecutionEnvironment("windows");
+
+    private final EnvironmentExpansion base = new EnvironmentExpansion(Arrays.asList(LINUX, WINDOWS));
+
+    @Test
+    public void expected_size_is_known_without_expanding() {
+        EnvironmentExpansion expansion = base.decorate(Collections.singletonList(counting), MATRIX)
+                .decorate(Collections.singletonList(counting), Arrays.asList("B=1", "B=2"));
+        int probes = decorations;
+        assertEquals(12, expansion.expectedSize());
+        assertEquals(probes, decorations);
+    }
+
+    @Test
+    public void environments_are_decorated_on_demand() {
+        List<ExecutionEnvironment> hosts = new ArrayList<ExecutionEnvironment>();
+        for (int i = 0; i < EnvironmentExpansion.BATCH_SIZE + 10; i++) {
+            hosts.add(new ExecutionEnvironment("host" + i));
+        }
+        EnvironmentExpansion expansion = new EnvironmentExpansion(hosts)
+                .decorate(Collections.singletonList(counting), MATRIX);
+        decorations = 0;
+        Iterator<ExecutionEnvironment> iterator = expansion.iterator();
+        assertEquals(0, decorations);
+        iterator.next();
+        assertEquals(EnvironmentExpansion.BATCH_SIZE, decorations);
+        int count = 1;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(hosts.size() * MATRIX.size(), count);
+        assertEquals(hosts.size(), decorations);
+    }
+
+    @Test
+    public void batches_match_single_decorations() {
+        List<String> variables = Arrays.asList("A=1 B=2", "A=1", "B=3", "A=2 B=2");
+        List<ExecutionEnvironment> expected = new ArrayList<ExecutionEnvironment>();
+        for (ExecutionEnvironment environment : base) {
+            expected.addAll(new MatrixEnvironmentDecorator().decorate(environment, variables));
+        }
+        List<ExecutionEnvironment> actual = new ArrayList<ExecutionEnvironment>();
+        for (ExecutionEnvironment environment : base.decorate(
+                Collections.<EnvironmentDecorator>singletonList(new MatrixEnvironmentDecorator()), variables)) {
+            actual.add(environment);
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void global_decorations_do_not_multiply() {
+        EnvironmentExpansion expansion = base.decorate(Collections.<EnvironmentDecorator>singletonList(
+                new GlobalEnvironmentDecorator()), MATRIX);
+        assertEquals(2, expansion.expectedSize());
+        for (ExecutionEnvironment environment : expansion) {
+            assertEquals("3", environment.getVariables().get("A"));
+        }
+    }
+
+    @Test
+    public void sections_without_decorators_yield_nothing() {
+        EnvironmentExpansion expansion = base.decorate(Collections.<EnvironmentDecorator>emptyList(), MATRIX);
+        assertEquals(0, expansion.expectedSize());
+        assertFalse(expansion.iterator().hasNext());
+        assertTrue(base.iterator().hasNext());
+    }
+
+    @Test
+    public void excluded_combinations_are_left_out() {
+        EnvironmentExpansion expansion = new EnvironmentExpansion(Arrays.asList(new ExecutionEnvironment("linux"),
+                new ExecutionEnvironment("windows"), new ExecutionEnvironment("osx")),
+                Arrays.asList(EnvironmentRule.parse("windows A=2"), EnvironmentRule.parse("A=3"),
+                        EnvironmentRule.parse("osx")))
+                .decorate(Collections.<EnvironmentDecorator>singletonList(new MatrixEnvironmentDecorator()), MATRIX);
+        assertTrue(expansion.hasExclusions());
+        assertEquals(9, expansion.expectedSize());
+        Set<String> combinations = new TreeSet<String>();
+        for (ExecutionEnvironment environment : expansion) {
+            combinations.add(environment.getLabels() + "" + environment.getVariables());
+        }
+        assertEquals(new TreeSet<String>(Arrays.asList("[linux]{A=1}", "[linux]{A=2}", "[windows]{A=1}")),
+                combinations);
+    }
+
+    @Test
+    public void exclusions_match_the_final_values() {
+        List<EnvironmentDecorator> matrix =
+                Collections.<EnvironmentDecorator>singletonList(new MatrixEnvironmentDecorator());
+        List<EnvironmentDecorator> global =
+                Collections.<EnvironmentDecorator>singletonList(new GlobalEnvironmentDecorator());
+        EnvironmentExpansion overwritten = new EnvironmentExpansion(Arrays.asList(LINUX, WINDOWS),
+                Arrays.asList(EnvironmentRule.parse("A=1"), EnvironmentRule.parse("windows B=2")))
+                .decorate(matrix, Arrays.asList("A=1 B=1", "A=2 B=2"))
+                .decorate(global, Collections.singletonList("A=3"));
+        Set<String> combinations = new TreeSet<String>();
+        for (ExecutionEnvironment environment : overwritten) {
+            combinations.add(environment.getLabels() + "" + environment.getVariables());
+        }
+        assertEquals(new TreeSet<String>(Arrays.asList("[linux]{A=3, B=1}", "[linux]{A=3, B=2}",
+                "[windows]{A=3, B=1}")), combinations);
+        EnvironmentExpansion excluded = new EnvironmentExpansion(Arrays.asList(LINUX, WINDOWS),
+                Collections.singletonList(EnvironmentRule.parse("A=3")))
+                .decorate(matrix, MATRIX)
+                .decorate(global, Collections.singletonList("A=3"));
+        assertFalse(excluded.iterator().hasNext());
+    }
+
+    @Test
+    public void rules_match_labels_and_variables() {
+        ExecutionEnvironment environment = new ExecutionEnvironment("linux", "x64")
+                .withVariables(Collections.singletonMap("A", "1"));
+        assertTrue(EnvironmentRule.parse("linux").matches(environment));
+        assertTrue(EnvironmentRule.parse("x64 A=1").matches(environment));
+        assertFalse(EnvironmentRule.parse("windows A=1").matches(environment));
+        assertFalse(EnvironmentRule.parse("A=2").matches(environment));
+        assertTrue(EnvironmentRule.parse("A=2").matches(environment, Collections.singletonMap("A", "2")));
+        assertEquals(environment, EnvironmentRule.parse("linux A=1 x64").toEnvironment());
+    }
+}
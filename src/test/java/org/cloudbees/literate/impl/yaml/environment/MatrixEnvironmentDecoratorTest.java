@@ -5,7 +5,10 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -64,4 +67,26 @@ public class MatrixEnvironmentDecoratorTest {
         }
     }
 
+    @Test
+    public void envs_should_follow_the_order_of_the_entries() {
+        List<String> entries = Arrays.asList("A=e", "A=d", "A=c", "A=b", "A=a", "A=f", "A=g", "A=h", "A=i", "A=j");
+        List<String> values = new ArrayList<String>();
+        for (ExecutionEnvironment env : instance.decorate(environment, entries)) {
+            values.add("A=" + env.getVariables().get("A"));
+        }
+        assertEquals(entries, values);
+    }
+
+    @Test
+    public void entries_yielding_the_same_env_should_generate_one_env() {
+        ExecutionEnvironment base = new ExecutionEnvironment("linux").withVariables(Collections.singletonMap("A", "b"));
+        List<ExecutionEnvironment> result = new ArrayList<ExecutionEnvironment>(
+                instance.decorate(base, Arrays.asList("B=c", "A=c", "B=c", "A=b B=c", "A=c")));
+        assertEquals(2, result.size());
+        assertEquals("c", result.get(0).getVariables().get("B"));
+        assertEquals("b", result.get(0).getVariables().get("A"));
+        assertEquals("c", result.get(1).getVariables().get("A"));
+        assertTrue(result.get(1).getLabels().contains("linux"));
+    }
+
 }
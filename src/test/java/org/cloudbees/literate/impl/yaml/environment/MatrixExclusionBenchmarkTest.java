@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.cloudbees.literate.impl.yaml.environment;
+
+import org.cloudbees.literate.Benchmarks;
+import org.cloudbees.literate.api.v1.ExecutionEnvironment;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Compares expanding a 5-axis matrix (operating system labels and four matrix variables) with the exclusions
+ * applied during the expansion against expanding the whole product and filtering it afterwards, see
+ * {@link Benchmarks}.
+ */
+public class MatrixExclusionBenchmarkTest {
+
+    private static final List<ExecutionEnvironment> OPERATING_SYSTEMS = Arrays.asList(
+            new ExecutionEnvironment("linux"), new ExecutionEnvironment("windows"), new ExecutionEnvironment("osx"),
+            new ExecutionEnvironment("freebsd"));
+
+    private static final String[][] AXES = {
+            {"JDK=6", "JDK=7", "JDK=8", "JDK=9", "JDK=10", "JDK=11"},
+            {"DB=h2", "DB=mysql", "DB=postgres", "DB=oracle", "DB=db2"},
+            {"LOCALE=en", "LOCALE=fr", "LOCALE=de", "LOCALE=ja"},
+            {"MODE=fast", "MODE=full", "MODE=it"}};
+
+    private static final List<EnvironmentRule> EXCLUSIONS = Arrays.asList(
+            EnvironmentRule.parse("windows DB=db2"), EnvironmentRule.parse("osx DB=oracle"),
+            EnvironmentRule.parse("osx DB=db2"), EnvironmentRule.parse("freebsd"),
+            EnvironmentRule.parse("JDK=6"), EnvironmentRule.parse("JDK=9"), EnvironmentRule.parse("JDK=10"),
+            EnvironmentRule.parse("LOCALE=ja MODE=full"), EnvironmentRule.parse("LOCALE=ja MODE=it"));
+
+    @Test
+    public void pruneDuringExpansion() throws Exception {
+        assertThat(expansion(new EnvironmentExpansion(OPERATING_SYSTEMS)).expectedSize(), is(4L * 6 * 5 * 4 * 3));
+        List<Integer> counts = Benchmarks.compare("filter after vs prune during", new Benchmarks.Workload<Integer>() {
+            public Integer run() {
+                int count = 0;
+                for (ExecutionEnvironment environment : expansion(new EnvironmentExpansion(OPERATING_SYSTEMS))) {
+                    if (!EnvironmentRule.anyMatches(EXCLUSIONS, environment)) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+        }, new Benchmarks.Workload<Integer>() {
+            public Integer run() {
+                int count = 0;
+                EnvironmentExpansion base = new EnvironmentExpansion(OPERATING_SYSTEMS, EXCLUSIONS);
+                for (ExecutionEnvironment ignored : expansion(base)) {
+                    count++;
+                }
+                return count;
+            }
+        });
+        // three JDKs, the databases left for each operating system and ten locale and mode pairs
+        assertThat(counts.get(0), is(3 * (5 + 4 + 3) * 10));
+        assertThat(counts.get(1), is(counts.get(0)));
+    }
+
+    private static EnvironmentExpansion expansion(EnvironmentExpansion base) {
+        List<EnvironmentDecorator> matrix =
+                Collections.<EnvironmentDecorator>singletonList(new MatrixEnvironmentDecorator());
+        EnvironmentExpansion result = base;
+        for (String[] axis : AXES) {
+            result = result.decorate(matrix, Arrays.asList(axis));
+        }
+        return result;
+    }
+}